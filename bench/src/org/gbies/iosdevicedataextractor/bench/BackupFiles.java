@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import org.gbies.iosbackupextractor.BackupFile;
+import org.gbies.iosbackupextractor.ITunesBackup;
+
+/**
+ * Files of the backup used as benchmark input. The backup is opened,
+ * unlocked and its Manifest.db decrypted once per trial, the files are
+ * selected by the file size distribution.
+ */
+public class BackupFiles {
+
+    /**
+     * Selection of the backup files by size.
+     */
+    public enum Distribution {
+
+        /**
+         * Many small files, SQLite databases and property lists below 1 MB
+         * like the files of the app and system domains.
+         */
+        SMALL_DATABASES,
+        /**
+         * Few large files of 8 MB and more like videos of the camera roll.
+         */
+        LARGE_MEDIA,
+        /**
+         * All files of the backup.
+         */
+        MIXED;
+
+        private static final long SMALL_SIZE = 1024 * 1024;
+        private static final long LARGE_SIZE = 8 * 1024 * 1024;
+
+        boolean accepts(BackupFile backupFile) {
+            switch (this) {
+                case SMALL_DATABASES:
+                    return backupFile.getSize() < SMALL_SIZE && isDatabase(backupFile.relativePath);
+                case LARGE_MEDIA:
+                    return backupFile.getSize() >= LARGE_SIZE;
+                default:
+                    return true;
+            }
+        }
+
+        private static boolean isDatabase(String relativePath) {
+            String name = relativePath.toLowerCase(Locale.ROOT);
+            return name.endsWith(".sqlite") || name.endsWith(".sqlitedb") || name.endsWith(".db")
+                    || name.endsWith(".plist") || name.endsWith("-wal") || name.endsWith("-shm");
+        }
+    }
+
+    private final ITunesBackup backup;
+    private final List<BackupFile> files;
+    private final boolean encrypted;
+    private final long bytes;
+
+    /**
+     * Opens the backup and selects its files.
+     *
+     * @param backupDirectory The folder containing the iOS backup files.
+     * @param password Password of the encrypted backup.
+     * @param distribution Selection of the files by size.
+     * @throws Exception
+     */
+    public BackupFiles(File backupDirectory, String password, Distribution distribution) throws Exception {
+        backup = new ITunesBackup(backupDirectory);
+        encrypted = backup.manifest.encrypted;
+        if (encrypted) {
+            backup.manifest.getKeyBag().get().unlock(password);
+            backup.decryptDatabase();
+        }
+
+        List<BackupFile> selectedFiles = new ArrayList<>();
+        long selectedBytes = 0;
+        for (BackupFile backupFile : backup.getAllFiles()) {
+            if (backupFile.getFileType() == BackupFile.FileType.FILE && distribution.accepts(backupFile)) {
+                selectedFiles.add(backupFile);
+                selectedBytes += backupFile.getSize();
+            }
+        }
+        if (selectedFiles.isEmpty()) {
+            throw new IllegalStateException("No " + distribution + " files in backup " + backupDirectory.getAbsolutePath());
+        }
+        files = Collections.unmodifiableList(selectedFiles);
+        bytes = selectedBytes;
+    }
+
+    public List<BackupFile> getFiles() {
+        return files;
+    }
+
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+
+    /**
+     * @return Size of all selected files.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Removes the decrypted Manifest.db of the backup.
+     */
+    public void close() {
+        backup.cleanUp();
+    }
+
+    /**
+     * Creates empty temporary directory of the benchmark output.
+     *
+     * @param prefix Prefix of the directory name.
+     * @return New directory.
+     * @throws IOException
+     */
+    public static File createOutputDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    /**
+     * Deletes the output directory with its content.
+     *
+     * @param directory Directory to be deleted.
+     * @throws IOException
+     */
+    public static void deleteOutputDirectory(File directory) throws IOException {
+        if (directory == null || !directory.exists()) {
+            return;
+        }
+        Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
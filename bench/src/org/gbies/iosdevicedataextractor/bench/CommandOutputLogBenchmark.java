@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor.bench;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import org.gbies.iosdevicedataextractor.CommandOutputLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of parsing the idevicebackup2 output and reading the backup creation
+ * percent, which {@code getBackupCreatePercent} reports to the progress
+ * monitor. One operation is one chunk of the output as it arrives from the
+ * command, with the progress bar lines and the file lines of the backup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandOutputLogBenchmark {
+
+    private static final int CHUNK_COUNT = 1000;
+    private CommandOutputLog outputLog;
+    private byte[][] chunks;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        outputLog = new CommandOutputLog();
+        chunks = new byte[CHUNK_COUNT][];
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            int percent = i * 100 / CHUNK_COUNT;
+            StringBuilder bar = new StringBuilder("[");
+            for (int j = 0; j < 50; j++) {
+                bar.append(j < percent / 2 ? '=' : ' ');
+            }
+            String chunk = "Receiving files\n" + bar + "] " + percent + "% Finished\n"
+                    + "Sending '" + String.format("%040x", i) + "' (" + (i * 4096) + " bytes)\r";
+            chunks[i] = chunk.getBytes(Charset.defaultCharset());
+        }
+    }
+
+    @Benchmark
+    public int writeAndGetPercent() {
+        byte[] chunk = chunks[index];
+        index = (index + 1) % CHUNK_COUNT;
+        outputLog.write(chunk, 0, chunk.length);
+        return outputLog.getPercent();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import org.gbies.iosdevicedataextractor.CompressionPolicy;
+import org.gbies.iosdevicedataextractor.ExtractionJournal;
+import org.gbies.iosdevicedataextractor.ExtractionMetrics;
+import org.gbies.iosdevicedataextractor.ExtractionProgress;
+import org.gbies.iosdevicedataextractor.ExtractionProgressListener;
+import org.gbies.iosdevicedataextractor.IOSDataUnpacker;
+import org.gbies.iosdevicedataextractor.UnlockedBackupCache;
+
+/**
+ * Measures the whole extraction of the backup by {@link IOSDataUnpacker}, as
+ * run by the module: opening the backup, unlocking the keybag, decryption of
+ * Manifest.db, the manifest queries, the directory tree and extraction of
+ * all files to ZIP archive or folder. The unlocked backup cache is cleared
+ * before each run, so every run derives the keys from the password.
+ *
+ * Usage: {@code EndToEndHarness --backup <backup folders> [--password <password>]
+ * [--output zip|folder] [--workers 0] [--policy CONTENT_AWARE] [--level -1]
+ * [--runs 3] [--report <file>] [--keep]}
+ *
+ * The backup folders are separated by commas, the password is used for the
+ * encrypted ones. Each run prints its wall time, throughput and the metrics
+ * of the phases. The metrics of all runs are written as JSON array to the
+ * report file. The
+ * output of the runs is deleted unless --keep is given.
+ */
+public class EndToEndHarness {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = SyntheticBackupGenerator.parseOptions(args);
+        if (!options.containsKey("backup")) {
+            System.err.println("Usage: EndToEndHarness --backup <backup folders> [--password <password>] [--output zip|folder]"
+                    + " [--workers 0] [--policy CONTENT_AWARE] [--level -1] [--runs 3] [--report <file>] [--keep]");
+            System.exit(2);
+        }
+        EndToEndHarness harness = new EndToEndHarness(options);
+        StringBuilder report = new StringBuilder("[");
+        for (String backup : options.get("backup").split(",")) {
+            harness.run(new File(backup.trim()), report);
+        }
+        report.append("\n]\n");
+        if (options.containsKey("report")) {
+            writeReport(new File(options.get("report")), report.toString());
+        }
+        System.exit(0);
+    }
+
+    private final String password;
+    private final boolean extractToZIP;
+    private final int workers;
+    private final CompressionPolicy policy;
+    private final int level;
+    private final int runs;
+    private final boolean keep;
+
+    private EndToEndHarness(Map<String, String> options) {
+        password = SyntheticBackupGenerator.getOption(options, "password", "");
+        extractToZIP = !"folder".equals(SyntheticBackupGenerator.getOption(options, "output", "zip"));
+        workers = Integer.parseInt(SyntheticBackupGenerator.getOption(options, "workers", "0"));
+        policy = CompressionPolicy.valueOf(SyntheticBackupGenerator.getOption(options, "policy", CompressionPolicy.CONTENT_AWARE.name()));
+        level = Integer.parseInt(SyntheticBackupGenerator.getOption(options, "level", "-1"));
+        runs = Integer.parseInt(SyntheticBackupGenerator.getOption(options, "runs", "3"));
+        keep = options.containsKey("keep");
+    }
+
+    /**
+     * Extracts the backup in the configured number of runs.
+     *
+     * @param backupDirectory The folder containing the iOS backup files.
+     * @param report Report to which the metrics of the runs are appended.
+     * @throws Exception
+     */
+    private void run(File backupDirectory, StringBuilder report) throws Exception {
+        List<Long> times = new ArrayList<>();
+        for (int run = 1; run <= runs; run++) {
+            UnlockedBackupCache.getInstance().clear();
+            IOSDataUnpacker unpacker = new IOSDataUnpacker();
+            unpacker.setWorkerCount(workers);
+            unpacker.setCompression(policy, level);
+            final AtomicReference<ExtractionProgress> lastProgress = new AtomicReference<>();
+            unpacker.addProgressListener(new ExtractionProgressListener() {
+                @Override
+                public void progressChanged(ExtractionProgress progress) {
+                    lastProgress.set(progress);
+                }
+            });
+
+            long start = System.nanoTime();
+            File extractDirectory = unpacker.extractBackup(backupDirectory.getAbsolutePath(), password, extractToZIP).get();
+            long millis = (System.nanoTime() - start) / 1000000;
+            times.add(millis);
+
+            ExtractionProgress progress = lastProgress.get();
+            long bytes = progress != null ? progress.getExtractedBytes() : 0;
+            long files = progress != null ? progress.getExtractedFiles() : 0;
+            System.out.println(backupDirectory.getName() + " run " + run + ": " + files + " files, " + bytes + " bytes in "
+                    + millis + " ms, " + (millis > 0 ? bytes * 1000 / millis / (1024 * 1024) : 0) + " MB/s");
+            String metrics = unpacker.getMetrics().toJson();
+            System.out.print(metrics);
+            report.append(report.length() > 1 ? ",\n" : "\n").append("{\"backup\": ").append(quote(backupDirectory.getAbsolutePath()))
+                    .append(", \"run\": ").append(run).append(", \"millis\": ").append(millis).append(", \"bytes\": ").append(bytes)
+                    .append(", \"metrics\": ").append(metrics.trim()).append("}");
+
+            if (keep) {
+                unpacker.getMetrics().writeReport(extractDirectory);
+            } else {
+                deleteOutput(extractDirectory);
+            }
+        }
+        Collections.sort(times);
+        System.out.println(backupDirectory.getName() + " wall time of " + runs + " runs: min " + times.get(0) + " ms, median "
+                + times.get(times.size() / 2) + " ms, max " + times.get(times.size() - 1) + " ms");
+    }
+
+    /**
+     * Deletes the extract directory with the journal and the metrics report
+     * next to it.
+     */
+    private static void deleteOutput(File extractDirectory) throws IOException {
+        BackupFiles.deleteOutputDirectory(extractDirectory);
+        File parent = extractDirectory.getAbsoluteFile().getParentFile();
+        Files.deleteIfExists(new File(parent, extractDirectory.getName() + ExtractionJournal.FILE_EXTENSION).toPath());
+        Files.deleteIfExists(new File(parent, extractDirectory.getName() + ExtractionMetrics.FILE_EXTENSION).toPath());
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static void writeReport(File reportFile, String report) throws IOException {
+        File parent = reportFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        Files.write(reportFile.toPath(), report.getBytes(StandardCharsets.UTF_8));
+    }
+}
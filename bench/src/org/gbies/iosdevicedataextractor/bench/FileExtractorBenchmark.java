@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.gbies.iosbackupextractor.BackupFile;
+import org.gbies.iosdevicedataextractor.FileExtractor;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link FileExtractor} extracting the selected files of the
+ * backup to folder ({@code extractToFile}) and to ZIP archive entries
+ * ({@code addToArchive}). One operation is one extracted file, the bytes
+ * counter gives the throughput in bytes. Allocation rate is reported by the
+ * gc profiler ({@code -prof gc}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class FileExtractorBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Input {
+
+        /**
+         * The folder containing the iOS backup files.
+         */
+        @Param({""})
+        public String backup;
+
+        /**
+         * Password of the encrypted backup.
+         */
+        @Param({""})
+        public String password;
+
+        @Param({"SMALL_DATABASES", "LARGE_MEDIA", "MIXED"})
+        public BackupFiles.Distribution distribution;
+
+        BackupFiles backupFiles;
+        File outputDirectory;
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            backupFiles = new BackupFiles(new File(backup), password, distribution);
+            outputDirectory = BackupFiles.createOutputDirectory("extract-bench");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            backupFiles.close();
+            BackupFiles.deleteOutputDirectory(outputDirectory);
+        }
+    }
+
+    /**
+     * Position of the thread in the selected files.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int index;
+
+        BackupFile next(List<BackupFile> files) {
+            BackupFile backupFile = files.get(index);
+            index = (index + 1) % files.size();
+            return backupFile;
+        }
+    }
+
+    /**
+     * Bytes extracted in the iteration, reported per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Benchmark
+    public void extractToFile(Input input, Cursor cursor, Bytes bytes) throws Exception {
+        BackupFile backupFile = cursor.next(input.backupFiles.getFiles());
+        File destination = new File(input.outputDirectory, backupFile.fileID);
+        new FileExtractor(backupFile, input.backupFiles.isEncrypted()).extractToFile(destination);
+        bytes.bytes += destination.length();
+    }
+
+    @Benchmark
+    public void addToArchive(Input input, Cursor cursor, Bytes bytes) throws Exception {
+        BackupFile backupFile = cursor.next(input.backupFiles.getFiles());
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new DiscardingOutputStream())) {
+            zipOutputStream.putNextEntry(new ZipEntry(backupFile.fileID));
+            new FileExtractor(backupFile, input.backupFiles.isEncrypted()).addToArchive(zipOutputStream);
+            zipOutputStream.closeEntry();
+        }
+        bytes.bytes += backupFile.getSize();
+    }
+
+    /**
+     * Discards the compressed data, only the extraction and compression are
+     * measured.
+     */
+    private static final class DiscardingOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.gbies.iosdevicedataextractor.PathSanitizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of {@link PathSanitizer}, which replaced the per-file
+ * {@code changingIllegalDirectoryName} of the output paths. The paths are
+ * typical iOS backup paths, some of them with characters illegal on Windows
+ * and over-long names.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PathSanitizerBenchmark {
+
+    private static final String[] DOMAINS = {
+        "HomeDomain", "MediaDomain", "CameraRollDomain", "AppDomain-com.apple.mobilesafari",
+        "AppDomainGroup-group.net.whatsapp.WhatsApp.shared", "SysSharedContainerDomain-systemgroup.com.apple.configurationprofiles"};
+    private static final String[] DIRECTORIES = {
+        "Library/SMS", "Library/Preferences", "Media/DCIM/100APPLE", "Library/Caches/com.apple.WebKit.Networking",
+        "Documents/Message/Media", "Library/Application Support/Containers"};
+    private static final String[] NAMES = {
+        "sms.db", "com.apple.springboard.plist", "IMG_%04d.HEIC", "Cache.db-wal",
+        "chat: %d <draft>.txt", "CON", "name with trailing dot.", "%d|pipe?*.jpg"};
+    private static final int PATH_COUNT = 4096;
+
+    @Param({"FILE_SYSTEM", "ZIP_ARCHIVE"})
+    public String target;
+
+    private PathSanitizer pathSanitizer;
+    private final List<String[]> paths = new ArrayList<>(PATH_COUNT);
+    private int index;
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        pathSanitizer = "ZIP_ARCHIVE".equals(target) ? PathSanitizer.forZipArchive() : PathSanitizer.forFileSystem();
+        Random random = new Random(1);
+        StringBuilder longName = new StringBuilder();
+        while (longName.length() < 300) {
+            longName.append("very long attachment name ");
+        }
+        for (int i = 0; i < PATH_COUNT; i++) {
+            String name = i % 64 == 0 ? longName.toString() : String.format(NAMES[random.nextInt(NAMES.length)], i);
+            paths.add(new String[]{DOMAINS[random.nextInt(DOMAINS.length)],
+                DIRECTORIES[random.nextInt(DIRECTORIES.length)] + "/" + name});
+        }
+    }
+
+    @Benchmark
+    public void sanitize(Blackhole blackhole) {
+        String[] path = paths.get(index);
+        index = (index + 1) % PATH_COUNT;
+        blackhole.consume(pathSanitizer.sanitize(path[0], path[1]));
+    }
+}
@@ -0,0 +1,617 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor.bench;
+
+import com.dd.plist.BinaryPropertyListWriter;
+import com.dd.plist.NSArray;
+import com.dd.plist.NSData;
+import com.dd.plist.NSDate;
+import com.dd.plist.NSDictionary;
+import com.dd.plist.NSNumber;
+import com.dd.plist.NSObject;
+import com.dd.plist.NSString;
+import com.dd.plist.UID;
+import com.dd.plist.XMLPropertyListWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import javax.crypto.Cipher;
+
+/**
+ * Writes synthetic iTunes backup of iOS 10.2 and above fully offline:
+ * Manifest.plist with the keybag and the Lockdown data, Info.plist,
+ * Status.plist, Manifest.db with MBFile archives of the files and
+ * directories, and the content files in the folders named by the first two
+ * characters of the fileID. The backup can be encrypted with a known
+ * password. The number of files, the file size histogram and the domain mix
+ * are configurable, the same seed gives the same backup.
+ *
+ * Usage: {@code SyntheticBackupGenerator --directory <backup folder>
+ * [--files 10000] [--password <password>] [--seed 1]
+ * [--sizes 4096:40,65536:40,1048576:15,8388608:5]
+ * [--domains HomeDomain:30,CameraRollDomain:30,MediaDomain:15,AppDomain:25]
+ * [--iterations 10000] [--password-iterations 10000000]}
+ *
+ * Sizes are upper bounds of the histogram buckets with their weights, the
+ * size is drawn log-uniformly in the bucket. AppDomain is spread over ten
+ * synthetic apps. The iteration counts default to the values of iTunes.
+ */
+public class SyntheticBackupGenerator {
+
+    private static final String DEFAULT_SIZES = "4096:40,65536:40,1048576:15,8388608:5";
+    private static final String DEFAULT_DOMAINS = "HomeDomain:30,CameraRollDomain:30,MediaDomain:15,AppDomain:25";
+    private static final int APP_COUNT = 10;
+    private static final int MEDIA_SIZE = 1024 * 1024;
+    private static final int MANIFEST_PROTECTION_CLASS = 4;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int FLAG_FILE = 1;
+    private static final int FLAG_DIRECTORY = 2;
+    private static final int MODE_FILE = 0100644;
+    private static final int MODE_DIRECTORY = 040755;
+    private final File directory;
+    private final int fileCount;
+    private final String password;
+    private final Random random;
+    private final Random keyRandom;
+    private final long[] sizeBounds;
+    private final double[] sizeWeights;
+    private final String[] domains;
+    private final double[] domainWeights;
+    private final int iterations;
+    private final int passwordIterations;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] encryptedBuffer = new byte[BUFFER_SIZE + 16];
+    private final byte[] pattern = new byte[64 * 1024];
+    private final String uniqueDeviceID;
+    private SyntheticKeyBag keyBag;
+    private long inode = 1000;
+    private long contentBytes;
+
+    /**
+     * @param directory The folder of the backup to be created.
+     * @param fileCount Number of files.
+     * @param password Password of the encrypted backup or null for
+     * unencrypted backup.
+     * @param seed Seed of the random content, the keys are drawn separately,
+     * so the encrypted and unencrypted backups have the same files.
+     * @param sizes File size histogram, upper bounds with weights.
+     * @param domainMix Domains with weights.
+     * @param iterations SHA-1 iterations of the key derivation.
+     * @param passwordIterations SHA-256 iterations of the key derivation.
+     */
+    public SyntheticBackupGenerator(File directory, int fileCount, String password, long seed, String sizes, String domainMix, int iterations, int passwordIterations) {
+        this.directory = directory;
+        this.fileCount = fileCount;
+        this.password = password;
+        this.random = new Random(seed);
+        this.keyRandom = new Random(~seed);
+        Map<String, Double> sizeHistogram = parseWeights(sizes);
+        this.sizeBounds = new long[sizeHistogram.size()];
+        this.sizeWeights = new double[sizeHistogram.size()];
+        int i = 0;
+        for (Map.Entry<String, Double> bucket : sizeHistogram.entrySet()) {
+            sizeBounds[i] = Long.parseLong(bucket.getKey());
+            sizeWeights[i++] = bucket.getValue();
+        }
+        Map<String, Double> domainHistogram = parseWeights(domainMix);
+        this.domains = domainHistogram.keySet().toArray(new String[0]);
+        this.domainWeights = new double[domains.length];
+        i = 0;
+        for (double weight : domainHistogram.values()) {
+            domainWeights[i++] = weight;
+        }
+        this.iterations = iterations;
+        this.passwordIterations = passwordIterations;
+        this.uniqueDeviceID = String.format("%040x", new BigInteger(1, SyntheticKeyBag.randomBytes(new Random(seed), 20)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (!options.containsKey("directory")) {
+            System.err.println("Usage: SyntheticBackupGenerator --directory <backup folder> [--files 10000] [--password <password>] [--seed 1]"
+                    + " [--sizes " + DEFAULT_SIZES + "] [--domains " + DEFAULT_DOMAINS + "] [--iterations 10000] [--password-iterations 10000000]");
+            System.exit(2);
+        }
+        SyntheticBackupGenerator generator = new SyntheticBackupGenerator(new File(options.get("directory")),
+                Integer.parseInt(getOption(options, "files", "10000")), options.get("password"),
+                Long.parseLong(getOption(options, "seed", "1")), getOption(options, "sizes", DEFAULT_SIZES),
+                getOption(options, "domains", DEFAULT_DOMAINS), Integer.parseInt(getOption(options, "iterations", "10000")),
+                Integer.parseInt(getOption(options, "password-iterations", "10000000")));
+        long start = System.nanoTime();
+        generator.generate();
+        System.out.println("Backup " + generator.directory.getAbsolutePath() + ": " + generator.fileCount + " files, "
+                + generator.contentBytes + " bytes, " + (generator.password != null ? "encrypted" : "unencrypted")
+                + ", generated in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Writes the backup. Existing backup in the folder is replaced.
+     *
+     * @throws IOException, SQLException, GeneralSecurityException
+     */
+    public void generate() throws IOException, SQLException, GeneralSecurityException {
+        if (directory.exists()) {
+            BackupFiles.deleteOutputDirectory(directory);
+        }
+        if (!directory.mkdirs()) {
+            throw new IOException("Can't create backup folder " + directory.getAbsolutePath());
+        }
+        keyBag = new SyntheticKeyBag(password, keyRandom, iterations, passwordIterations);
+        fillPattern();
+
+        File database = new File(directory, "Manifest.db.plain");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath())) {
+            createTables(connection);
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO Files (fileID, domain, relativePath, flags, file) VALUES (?, ?, ?, ?, ?)")) {
+                addFiles(insert);
+            }
+            connection.commit();
+        }
+
+        byte[] manifestKey = null;
+        if (password != null) {
+            byte[] databaseKey = SyntheticKeyBag.randomBytes(keyRandom, 32);
+            manifestKey = keyBag.wrapKey(MANIFEST_PROTECTION_CLASS, databaseKey);
+            try (InputStream plainDatabase = Files.newInputStream(database.toPath());
+                    OutputStream encryptedDatabase = new FileOutputStream(new File(directory, "Manifest.db"))) {
+                Cipher cipher = SyntheticKeyBag.newContentCipher(databaseKey);
+                int bytesRead;
+                while ((bytesRead = plainDatabase.read(buffer)) != -1) {
+                    encryptedDatabase.write(encryptedBuffer, 0, cipher.update(buffer, 0, bytesRead, encryptedBuffer));
+                }
+                encryptedDatabase.write(encryptedBuffer, 0, cipher.doFinal(encryptedBuffer, 0));
+            }
+            Files.delete(database.toPath());
+        } else {
+            Files.move(database.toPath(), new File(directory, "Manifest.db").toPath());
+        }
+
+        writeManifestPlist(manifestKey);
+        writeInfoPlist();
+        writeStatusPlist();
+    }
+
+    private static void createTables(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE Files (fileID TEXT PRIMARY KEY, domain TEXT, relativePath TEXT, flags INTEGER, file BLOB)");
+            statement.executeUpdate("CREATE INDEX FilesDomainIdx ON Files(domain)");
+            statement.executeUpdate("CREATE INDEX FilesRelativePathIdx ON Files(relativePath)");
+            statement.executeUpdate("CREATE INDEX FilesFlagsIdx ON Files(flags)");
+            statement.executeUpdate("CREATE TABLE Properties (key TEXT PRIMARY KEY, value BLOB)");
+        }
+    }
+
+    /**
+     * Adds the files with their parent directories, directories are listed
+     * once before their first file.
+     */
+    private void addFiles(PreparedStatement insert) throws IOException, SQLException, GeneralSecurityException {
+        Set<String> directories = new LinkedHashSet<>();
+        int batch = 0;
+        for (int i = 0; i < fileCount; i++) {
+            long size = nextSize();
+            String domain = nextDomain();
+            String relativePath = nextPath(domain, size, i);
+
+            String parent = relativePath;
+            List<String> newDirectories = new ArrayList<>();
+            while (parent.lastIndexOf('/') > 0) {
+                parent = parent.substring(0, parent.lastIndexOf('/'));
+                if (!directories.add(domain + "-" + parent)) {
+                    break;
+                }
+                newDirectories.add(0, parent);
+            }
+            for (String newDirectory : newDirectories) {
+                addRow(insert, domain, newDirectory, FLAG_DIRECTORY, archiveFile(newDirectory, 0, MODE_DIRECTORY, 0, null));
+            }
+
+            String fileID = getFileID(domain, relativePath);
+            int protectionClass = size >= MEDIA_SIZE ? 3 : 4;
+            byte[] encryptionKey = null;
+            byte[] fileKey = null;
+            if (password != null) {
+                fileKey = SyntheticKeyBag.randomBytes(keyRandom, 32);
+                encryptionKey = keyBag.wrapKey(protectionClass, fileKey);
+            }
+            writeContent(fileID, relativePath, size, fileKey);
+            addRow(insert, domain, relativePath, FLAG_FILE, archiveFile(relativePath, size, MODE_FILE, protectionClass, encryptionKey));
+
+            if (++batch % 1000 == 0) {
+                insert.executeBatch();
+            }
+        }
+        insert.executeBatch();
+    }
+
+    private void addRow(PreparedStatement insert, String domain, String relativePath, int flags, byte[] file) throws SQLException {
+        insert.setString(1, getFileID(domain, relativePath));
+        insert.setString(2, domain);
+        insert.setString(3, relativePath);
+        insert.setInt(4, flags);
+        insert.setBytes(5, file);
+        insert.addBatch();
+    }
+
+    /**
+     * Writes content of the file, media files are random with the signature
+     * of the format, other files are compressible database pages.
+     */
+    private void writeContent(String fileID, String relativePath, long size, byte[] fileKey) throws IOException, GeneralSecurityException {
+        File contentDirectory = new File(directory, fileID.substring(0, 2));
+        if (!contentDirectory.isDirectory() && !contentDirectory.mkdirs()) {
+            throw new IOException("Can't create folder " + contentDirectory.getAbsolutePath());
+        }
+        boolean media = isMedia(relativePath);
+        Cipher cipher = fileKey != null ? SyntheticKeyBag.newContentCipher(fileKey) : null;
+        try (OutputStream content = new FileOutputStream(new File(contentDirectory, fileID))) {
+            long remaining = size;
+            boolean first = true;
+            while (remaining > 0) {
+                int length = (int) Math.min(buffer.length, remaining);
+                fillContent(length, media, first, relativePath);
+                if (cipher != null) {
+                    content.write(encryptedBuffer, 0, cipher.update(buffer, 0, length, encryptedBuffer));
+                } else {
+                    content.write(buffer, 0, length);
+                }
+                remaining -= length;
+                first = false;
+            }
+            if (cipher != null) {
+                content.write(encryptedBuffer, 0, cipher.doFinal(encryptedBuffer, 0));
+            }
+        }
+        contentBytes += size;
+    }
+
+    /**
+     * Fills the buffer with the next chunk of the content. Compressible
+     * content is copied from the pattern of database rows by 4 KB pages, each
+     * page with some random bytes, so it compresses like the real databases.
+     */
+    private void fillContent(int length, boolean media, boolean first, String relativePath) {
+        if (media) {
+            for (int i = 0; i < length;) {
+                for (int value = random.nextInt(), n = Math.min(4, length - i); n-- > 0; value >>= 8) {
+                    buffer[i++] = (byte) value;
+                }
+            }
+        } else {
+            for (int offset = 0; offset < length; offset += 4096) {
+                int pageLength = Math.min(4096, length - offset);
+                System.arraycopy(pattern, random.nextInt(pattern.length - 4096), buffer, offset, pageLength);
+                for (int i = 0; i < pageLength / 64; i++) {
+                    buffer[offset + random.nextInt(pageLength)] = (byte) random.nextInt();
+                }
+            }
+        }
+        if (first) {
+            byte[] signature = getSignature(relativePath);
+            System.arraycopy(signature, 0, buffer, 0, Math.min(signature.length, length));
+        }
+    }
+
+    private void fillPattern() {
+        String[] words = {"message", "handle", "chat", "attachment", "date", "service", "iMessage", "SMS",
+            "guid", "text", "is_from_me", "account", "contact", "+48", "bundle", "com.apple."};
+        StringBuilder rows = new StringBuilder();
+        while (rows.length() < pattern.length) {
+            rows.append(random.nextInt(100000)).append('|');
+            for (int i = 0; i < 6; i++) {
+                rows.append(words[random.nextInt(words.length)]).append(i < 5 ? ' ' : '\n');
+            }
+        }
+        System.arraycopy(rows.toString().getBytes(StandardCharsets.US_ASCII), 0, pattern, 0, pattern.length);
+    }
+
+    private static byte[] getSignature(String relativePath) {
+        switch (getExtension(relativePath)) {
+            case "jpg":
+                return new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10, 'J', 'F', 'I', 'F', 0};
+            case "heic":
+                return new byte[]{0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'h', 'e', 'i', 'c'};
+            case "mov":
+                return new byte[]{0, 0, 0, 0x14, 'f', 't', 'y', 'p', 'q', 't', ' ', ' '};
+            case "mp4":
+                return new byte[]{0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'};
+            case "m4a":
+                return new byte[]{0, 0, 0, 0x1C, 'f', 't', 'y', 'p', 'M', '4', 'A', ' '};
+            case "plist":
+                return "bplist00".getBytes(StandardCharsets.US_ASCII);
+            case "sqlite":
+            case "db":
+                return "SQLite format 3\0".getBytes(StandardCharsets.US_ASCII);
+            default:
+                return new byte[0];
+        }
+    }
+
+    private static boolean isMedia(String relativePath) {
+        switch (getExtension(relativePath)) {
+            case "jpg":
+            case "heic":
+            case "mov":
+            case "mp4":
+            case "m4a":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String getExtension(String relativePath) {
+        int dotIndex = relativePath.lastIndexOf('.');
+        return dotIndex < 0 ? "" : relativePath.substring(dotIndex + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Draws the size from the histogram, log-uniformly in the bucket.
+     */
+    private long nextSize() {
+        int bucket = pick(sizeWeights);
+        long lower = bucket > 0 ? sizeBounds[bucket - 1] : 1;
+        long upper = Math.max(lower, sizeBounds[bucket]);
+        double logSize = Math.log(lower) + random.nextDouble() * (Math.log(upper) - Math.log(lower));
+        return Math.max(1, Math.min(upper, Math.round(Math.exp(logSize))));
+    }
+
+    private String nextDomain() {
+        String domain = domains[pick(domainWeights)];
+        if ("AppDomain".equals(domain)) {
+            return "AppDomain-" + getBundleIdentifier(random.nextInt(APP_COUNT));
+        }
+        return domain;
+    }
+
+    private static String getBundleIdentifier(int app) {
+        return "com.example.synthetic.app" + app;
+    }
+
+    /**
+     * Builds unique path of the file typical for the domain, large files are
+     * media files.
+     */
+    private String nextPath(String domain, long size, int index) {
+        String[] databases = {"sqlite", "db", "plist"};
+        String database = databases[random.nextInt(databases.length)];
+        if (domain.equals("CameraRollDomain")) {
+            String folder = String.format("%03dAPPLE", 100 + index / 1000 % 900);
+            if (size < MEDIA_SIZE) {
+                return String.format("Media/PhotoData/Thumbnails/V2/DCIM/%s/IMG_%06d.JPG/5005.JPG", folder, index);
+            }
+            return String.format("Media/DCIM/%s/IMG_%06d.%s", folder, index, size >= 8 * MEDIA_SIZE ? "MOV" : "HEIC");
+        }
+        if (domain.equals("MediaDomain")) {
+            if (size < 64 * 1024) {
+                return String.format("Library/Recordings/%06d.m4a", index);
+            }
+            return String.format("Library/SMS/Attachments/%02x/%02d/IMG_%06d.%s", index % 256, index / 256 % 100, index, size >= 8 * MEDIA_SIZE ? "MOV" : "JPG");
+        }
+        if (domain.startsWith("AppDomain-")) {
+            if (size >= MEDIA_SIZE) {
+                return String.format("Documents/Media/VID_%06d.mp4", index);
+            }
+            return String.format("Library/Application Support/Data/store%06d.%s", index, database);
+        }
+        String[] folders = {"SMS", "AddressBook", "CallHistoryDB", "Notes", "Safari", "Preferences"};
+        return String.format("Library/%s/%s%06d.%s", folders[random.nextInt(folders.length)], "data", index, database);
+    }
+
+    private int pick(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double value = random.nextDouble() * total;
+        for (int i = 0; i < weights.length; i++) {
+            value -= weights[i];
+            if (value < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    /**
+     * @return FileID of the backup file, SHA-1 of the domain and the
+     * relative path.
+     */
+    private static String getFileID(String domain, String relativePath) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((domain + "-" + relativePath).getBytes(StandardCharsets.UTF_8));
+            return String.format("%040x", new BigInteger(1, hash));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Archives MBFile of the file as NSKeyedArchiver binary property list,
+     * the format of the file column of Manifest.db.
+     */
+    private byte[] archiveFile(String relativePath, long size, int mode, int protectionClass, byte[] encryptionKey) throws IOException {
+        long time = 1600000000L + random.nextInt(100000000);
+        List<NSObject> objects = new ArrayList<>();
+        objects.add(new NSString("$null"));
+        NSDictionary file = new NSDictionary();
+        objects.add(file);
+        file.put("LastModified", new NSNumber(time));
+        file.put("LastStatusChange", new NSNumber(time));
+        file.put("Birth", new NSNumber(time));
+        file.put("Flags", new NSNumber(0));
+        file.put("GroupID", new NSNumber(501));
+        file.put("UserID", new NSNumber(501));
+        file.put("Size", new NSNumber(size));
+        file.put("InodeNumber", new NSNumber(inode++));
+        file.put("Mode", new NSNumber(mode));
+        file.put("ProtectionClass", new NSNumber(protectionClass));
+        file.put("RelativePath", uid(objects.size()));
+        objects.add(new NSString(relativePath));
+        if (encryptionKey != null) {
+            file.put("EncryptionKey", uid(objects.size()));
+            NSDictionary data = new NSDictionary();
+            objects.add(data);
+            data.put("NS.data", new NSData(encryptionKey));
+            data.put("$class", uid(objects.size()));
+            NSDictionary dataClass = new NSDictionary();
+            dataClass.put("$classname", new NSString("NSMutableData"));
+            dataClass.put("$classes", new NSArray(new NSString("NSMutableData"), new NSString("NSData"), new NSString("NSObject")));
+            objects.add(dataClass);
+        }
+        file.put("$class", uid(objects.size()));
+        NSDictionary fileClass = new NSDictionary();
+        fileClass.put("$classname", new NSString("MBFile"));
+        fileClass.put("$classes", new NSArray(new NSString("MBFile"), new NSString("NSObject")));
+        objects.add(fileClass);
+
+        NSDictionary top = new NSDictionary();
+        top.put("root", uid(1));
+        NSDictionary archive = new NSDictionary();
+        archive.put("$version", new NSNumber(100000));
+        archive.put("$archiver", new NSString("NSKeyedArchiver"));
+        archive.put("$top", top);
+        archive.put("$objects", new NSArray(objects.toArray(new NSObject[0])));
+        return BinaryPropertyListWriter.writeToArray(archive);
+    }
+
+    private static UID uid(int index) {
+        return new UID("", new byte[]{(byte) index});
+    }
+
+    private void writeManifestPlist(byte[] manifestKey) throws IOException {
+        NSDictionary manifest = new NSDictionary();
+        manifest.put("BackupKeyBag", new NSData(keyBag.toBytes()));
+        manifest.put("Version", new NSString("10.0"));
+        manifest.put("Date", new NSDate(new Date()));
+        manifest.put("SystemDomainsVersion", new NSString("24.0"));
+        manifest.put("WasPasscodeSet", new NSNumber(false));
+        manifest.put("IsEncrypted", new NSNumber(password != null));
+        if (manifestKey != null) {
+            manifest.put("ManifestKey", new NSData(manifestKey));
+        }
+        manifest.put("Lockdown", getLockdown());
+        NSDictionary applications = new NSDictionary();
+        for (int app = 0; app < APP_COUNT; app++) {
+            NSDictionary application = new NSDictionary();
+            application.put("CFBundleIdentifier", new NSString(getBundleIdentifier(app)));
+            application.put("CFBundleVersion", new NSString("1.0"));
+            application.put("ContainerContentClass", new NSString("Data/Application"));
+            applications.put(getBundleIdentifier(app), application);
+        }
+        manifest.put("Applications", applications);
+        BinaryPropertyListWriter.write(manifest, new File(directory, "Manifest.plist"));
+    }
+
+    private NSDictionary getLockdown() {
+        NSDictionary lockdown = new NSDictionary();
+        lockdown.put("DeviceName", new NSString("Synthetic iPhone"));
+        lockdown.put("ProductType", new NSString("iPhone14,5"));
+        lockdown.put("ProductVersion", new NSString("16.6"));
+        lockdown.put("BuildVersion", new NSString("20G75"));
+        lockdown.put("SerialNumber", new NSString("SYNTHETIC0001"));
+        lockdown.put("UniqueDeviceID", new NSString(uniqueDeviceID));
+        return lockdown;
+    }
+
+    private void writeInfoPlist() throws IOException {
+        NSDictionary info = new NSDictionary();
+        info.put("Device Name", new NSString("Synthetic iPhone"));
+        info.put("Display Name", new NSString("Synthetic iPhone"));
+        info.put("Product Type", new NSString("iPhone14,5"));
+        info.put("Product Version", new NSString("16.6"));
+        info.put("Build Version", new NSString("20G75"));
+        info.put("Serial Number", new NSString("SYNTHETIC0001"));
+        info.put("Target Identifier", new NSString(uniqueDeviceID));
+        info.put("Target Type", new NSString("Device"));
+        info.put("Unique Identifier", new NSString(uniqueDeviceID.toUpperCase(Locale.ROOT)));
+        info.put("Last Backup Date", new NSDate(new Date()));
+        XMLPropertyListWriter.write(info, new File(directory, "Info.plist"));
+    }
+
+    private void writeStatusPlist() throws IOException {
+        NSDictionary status = new NSDictionary();
+        status.put("BackupState", new NSString("new"));
+        status.put("Date", new NSDate(new Date()));
+        status.put("IsFullBackup", new NSNumber(false));
+        status.put("SnapshotState", new NSString("finished"));
+        status.put("UUID", new NSString(UUID.nameUUIDFromBytes(uniqueDeviceID.getBytes(StandardCharsets.US_ASCII)).toString().toUpperCase(Locale.ROOT)));
+        status.put("Version", new NSString("3.3"));
+        BinaryPropertyListWriter.write(status, new File(directory, "Status.plist"));
+    }
+
+    /**
+     * Parses comma separated "key:weight" pairs.
+     */
+    private static Map<String, Double> parseWeights(String weights) {
+        Map<String, Double> parsed = new LinkedHashMap<>();
+        for (String pair : weights.split(",")) {
+            int separator = pair.lastIndexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key:weight, found " + pair);
+            }
+            parsed.put(pair.substring(0, separator).trim(), Double.parseDouble(pair.substring(separator + 1)));
+        }
+        return parsed;
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            String value = i + 1 < args.length && !args[i + 1].startsWith("--") ? args[++i] : "true";
+            options.put(name, value);
+        }
+        return options;
+    }
+
+    static String getOption(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null && !value.isEmpty() ? value : defaultValue;
+    }
+}
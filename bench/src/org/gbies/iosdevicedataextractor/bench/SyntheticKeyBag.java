@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Backup keybag of the synthetic backup in the iTunes format of iOS 10.2 and
+ * above. The passcode key is derived from the password with PBKDF2-SHA256
+ * (DPSL, DPIC) followed by PBKDF2-SHA1 (SALT, ITER), the class keys are
+ * wrapped with it (RFC 3394). Keys of Manifest.db and of the files are
+ * wrapped with the class keys, the content is encrypted with AES-256-CBC
+ * and zero IV.
+ */
+class SyntheticKeyBag {
+
+    private static final int KEY_LENGTH = 32;
+    private static final int WRAP_PASSCODE = 2;
+    private static final int[] PROTECTION_CLASSES = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private final byte[] uuid = new byte[16];
+    private final byte[] hmacKey = new byte[40];
+    private final byte[] salt = new byte[20];
+    private final byte[] doublePasswordSalt = new byte[20];
+    private final int iterations;
+    private final int doublePasswordIterations;
+    private final byte[][] classKeys = new byte[PROTECTION_CLASSES.length + 1][];
+    private final byte[][] wrappedClassKeys = new byte[PROTECTION_CLASSES.length + 1][];
+    private final byte[][] classUuids = new byte[PROTECTION_CLASSES.length + 1][];
+
+    /**
+     * Creates keybag with random class keys.
+     *
+     * @param password Backup password, for unencrypted backup the class keys
+     * are wrapped with random key.
+     * @param random Source of the keys and salts.
+     * @param iterations SHA-1 iterations of the key derivation (ITER).
+     * @param doublePasswordIterations SHA-256 iterations of the key derivation
+     * (DPIC).
+     * @throws GeneralSecurityException
+     */
+    SyntheticKeyBag(String password, Random random, int iterations, int doublePasswordIterations) throws GeneralSecurityException {
+        this.iterations = iterations;
+        this.doublePasswordIterations = doublePasswordIterations;
+        random.nextBytes(uuid);
+        random.nextBytes(hmacKey);
+        random.nextBytes(salt);
+        random.nextBytes(doublePasswordSalt);
+
+        byte[] passcodeKey;
+        if (password != null) {
+            byte[] doublePasswordKey = pbkdf2("HmacSHA256", password.getBytes(StandardCharsets.UTF_8), doublePasswordSalt, doublePasswordIterations);
+            passcodeKey = pbkdf2("HmacSHA1", doublePasswordKey, salt, iterations);
+        } else {
+            passcodeKey = randomBytes(random, KEY_LENGTH);
+        }
+        for (int protectionClass : PROTECTION_CLASSES) {
+            classKeys[protectionClass] = randomBytes(random, KEY_LENGTH);
+            wrappedClassKeys[protectionClass] = wrap(passcodeKey, classKeys[protectionClass]);
+            classUuids[protectionClass] = randomBytes(random, 16);
+        }
+    }
+
+    /**
+     * @return Keybag as TLV blocks, saved as BackupKeyBag of Manifest.plist.
+     */
+    byte[] toBytes() {
+        ByteArrayOutputStream keyBag = new ByteArrayOutputStream();
+        writeBlock(keyBag, "VERS", 4);
+        writeBlock(keyBag, "TYPE", 1);
+        writeBlock(keyBag, "UUID", uuid);
+        writeBlock(keyBag, "HMCK", hmacKey);
+        writeBlock(keyBag, "WRAP", 1);
+        writeBlock(keyBag, "SALT", salt);
+        writeBlock(keyBag, "ITER", iterations);
+        writeBlock(keyBag, "DPWT", 1);
+        writeBlock(keyBag, "DPIC", doublePasswordIterations);
+        writeBlock(keyBag, "DPSL", doublePasswordSalt);
+        for (int protectionClass : PROTECTION_CLASSES) {
+            writeBlock(keyBag, "UUID", classUuids[protectionClass]);
+            writeBlock(keyBag, "CLAS", protectionClass);
+            writeBlock(keyBag, "WRAP", WRAP_PASSCODE);
+            writeBlock(keyBag, "KTYP", 0);
+            writeBlock(keyBag, "WPKY", wrappedClassKeys[protectionClass]);
+        }
+        return keyBag.toByteArray();
+    }
+
+    /**
+     * Wraps the key of Manifest.db or of the file with the class key.
+     *
+     * @param protectionClass Protection class of the key.
+     * @param key Key to be wrapped.
+     * @return Protection class (4 bytes little endian) followed by the
+     * wrapped key, as ManifestKey and EncryptionKey of the backup.
+     * @throws GeneralSecurityException
+     */
+    byte[] wrapKey(int protectionClass, byte[] key) throws GeneralSecurityException {
+        byte[] wrappedKey = wrap(classKeys[protectionClass], key);
+        return ByteBuffer.allocate(4 + wrappedKey.length).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(protectionClass).put(wrappedKey).array();
+    }
+
+    /**
+     * @param key AES-256 key of the content.
+     * @return Cipher encrypting the content with zero IV and PKCS#7 padding.
+     * @throws GeneralSecurityException
+     */
+    static Cipher newContentCipher(byte[] key) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(new byte[16]));
+        return cipher;
+    }
+
+    static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] wrap(byte[] keyEncryptionKey, byte[] key) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AESWrap");
+        cipher.init(Cipher.WRAP_MODE, new SecretKeySpec(keyEncryptionKey, "AES"));
+        return cipher.wrap(new SecretKeySpec(key, "AES"));
+    }
+
+    /**
+     * PBKDF2 with binary password, the JCE key factories accept only
+     * character passwords.
+     */
+    private static byte[] pbkdf2(String algorithm, byte[] password, byte[] salt, int iterations) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(algorithm);
+        mac.init(new SecretKeySpec(password, algorithm));
+        byte[] key = new byte[KEY_LENGTH];
+        int offset = 0;
+        for (int block = 1; offset < KEY_LENGTH; block++) {
+            mac.update(salt);
+            byte[] u = mac.doFinal(ByteBuffer.allocate(4).putInt(block).array());
+            byte[] t = u.clone();
+            for (int i = 1; i < iterations; i++) {
+                u = mac.doFinal(u);
+                for (int j = 0; j < t.length; j++) {
+                    t[j] ^= u[j];
+                }
+            }
+            int length = Math.min(t.length, KEY_LENGTH - offset);
+            System.arraycopy(t, 0, key, offset, length);
+            offset += length;
+        }
+        return key;
+    }
+
+    private static void writeBlock(ByteArrayOutputStream keyBag, String tag, int value) {
+        writeBlock(keyBag, tag, ByteBuffer.allocate(4).putInt(value).array());
+    }
+
+    private static void writeBlock(ByteArrayOutputStream keyBag, String tag, byte[] value) {
+        byte[] header = ByteBuffer.allocate(8).put(tag.getBytes(StandardCharsets.US_ASCII)).putInt(value.length).array();
+        keyBag.write(header, 0, header.length);
+        keyBag.write(value, 0, value.length);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.gbies.iosbackupextractor.BackupFile;
+import org.gbies.iosdevicedataextractor.CompressionPolicy;
+import org.gbies.iosdevicedataextractor.ParallelZipWriter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of writing the selected files of the backup to ZIP archive with
+ * {@link ParallelZipWriter} for the compression policies, deflate levels and
+ * numbers of workers. One operation is the whole archive, the bytes counter
+ * gives the throughput in bytes of the extracted content.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ZipWriterBenchmark {
+
+    /**
+     * The folder containing the iOS backup files.
+     */
+    @Param({""})
+    public String backup;
+
+    /**
+     * Password of the encrypted backup.
+     */
+    @Param({""})
+    public String password;
+
+    @Param({"SMALL_DATABASES", "LARGE_MEDIA", "MIXED"})
+    public BackupFiles.Distribution distribution;
+
+    @Param({"CONTENT_AWARE", "DEFLATE_ALL", "STORE_ALL"})
+    public CompressionPolicy policy;
+
+    /**
+     * Deflate level, -1 is the default level.
+     */
+    @Param({"1", "-1", "9"})
+    public int level;
+
+    @Param({"1", "4"})
+    public int workers;
+
+    private BackupFiles backupFiles;
+    private File outputDirectory;
+
+    /**
+     * Bytes of the content written to the archive, reported per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        backupFiles = new BackupFiles(new File(backup), password, distribution);
+        outputDirectory = BackupFiles.createOutputDirectory("zip-bench");
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        backupFiles.close();
+        BackupFiles.deleteOutputDirectory(outputDirectory);
+    }
+
+    @Benchmark
+    public long writeArchive(Bytes bytes) throws Exception {
+        File zipFile = new File(outputDirectory, "backup.zip");
+        try (ParallelZipWriter zipWriter = new ParallelZipWriter(zipFile, workers, policy, level, null)) {
+            for (BackupFile backupFile : backupFiles.getFiles()) {
+                zipWriter.addEntry(backupFile.domain + "/" + backupFile.relativePath, backupFile);
+            }
+        }
+        bytes.bytes += backupFiles.getBytes();
+        return zipFile.length();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.gbies.iosbackupextractor.BackupFile;
+import org.gbies.iosbackupextractor.BackupReadException;
+import org.gbies.iosbackupextractor.ITunesBackup;
+
+/**
+ * Reads records of the backup Manifest.db in batches, so only the files of
+ * the current batch are kept in memory. Records are read in fileID order
+ * (keyset pagination on the primary key of the Files table). Conditions of
+ * the extraction filter are added to the query.
+ */
+public class BackupFileCursor {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    private final ITunesBackup backup;
+    private final int batchSize;
+    private final ExtractionFilter filter;
+    private final String query;
+    private String lastFileID;
+    private boolean exhausted;
+
+    /**
+     * Main constructor.
+     *
+     * @param backup Backup with decrypted Manifest.db.
+     */
+    public BackupFileCursor(ITunesBackup backup) {
+        this(backup, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param backup Backup with decrypted Manifest.db.
+     * @param batchSize Maximum number of files read at once.
+     */
+    public BackupFileCursor(ITunesBackup backup, int batchSize) {
+        this(backup, batchSize, new ExtractionFilter());
+    }
+
+    /**
+     * @param backup Backup with decrypted Manifest.db.
+     * @param batchSize Maximum number of files read at once.
+     * @param filter Filter selecting files to be read.
+     */
+    public BackupFileCursor(ITunesBackup backup, int batchSize, ExtractionFilter filter) {
+        this.backup = backup;
+        this.batchSize = batchSize;
+        this.filter = filter;
+        this.query = "SELECT * FROM Files WHERE fileID > ?" + filter.getWhereClause() + " ORDER BY fileID LIMIT ?";
+        this.lastFileID = "";
+    }
+
+    /**
+     * Reads next batch of files from Manifest.db.
+     *
+     * @return Next files or empty list if all files have been read.
+     * @throws BackupReadException
+     */
+    public List<BackupFile> nextBatch() throws BackupReadException {
+        while (!exhausted) {
+            List<BackupFile> batch = backup.queryFiles(query, new ITunesBackup.StatementPreparation() {
+                @Override
+                public void prepare(PreparedStatement statement) throws SQLException {
+                    statement.setString(1, lastFileID);
+                    int index = filter.bindParameters(statement, 2);
+                    statement.setInt(index, batchSize);
+                }
+            });
+
+            if (batch.isEmpty()) {
+                exhausted = true;
+                break;
+            }
+            lastFileID = batch.get(batch.size() - 1).fileID;
+
+            List<BackupFile> acceptedFiles = new ArrayList<>(batch.size());
+            for (BackupFile backupFile : batch) {
+                if (filter.acceptsSize(backupFile)) {
+                    acceptedFiles.add(backupFile);
+                }
+            }
+            if (!acceptedFiles.isEmpty()) {
+                return acceptedFiles;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Estimates which part of Manifest.db has been read. FileIDs are SHA-1
+     * hashes, so they are evenly distributed and the position of the fileID
+     * in the hash space is close to the part of the files read.
+     *
+     * @param backupFile Last file read.
+     * @return Estimated percent of files read.
+     */
+    public static int getPercent(BackupFile backupFile) {
+        String fileID = backupFile.fileID;
+        if (fileID == null || fileID.length() < 4) {
+            return 0;
+        }
+        try {
+            return (Integer.parseInt(fileID.substring(0, 4), 16) * 100) / 0x10000;
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+}
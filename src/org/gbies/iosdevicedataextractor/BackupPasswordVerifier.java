@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+import org.gbies.iosbackupextractor.BackupReadException;
+import org.gbies.iosbackupextractor.ITunesBackup;
+
+/**
+ * Checks the list of password candidates against the keybag of encrypted
+ * backup. Candidates are checked in parallel, each worker unlocks its own
+ * keybag, and the verification stops at the first matching password. No files
+ * are extracted, the unlocked backup is put to the UnlockedBackupCache, so
+ * the following extraction doesn't derive the keys again.
+ */
+public class BackupPasswordVerifier {
+
+    private final File backupDirectory;
+    private final int workerCount;
+    private final Object progressLock = new Object();
+    private volatile boolean cancelled;
+
+    /**
+     * Main constructor.
+     *
+     * @param backupDirectory The folder containing the backup files.
+     * @param workerCount Number of candidates checked in parallel.
+     */
+    public BackupPasswordVerifier(File backupDirectory, int workerCount) {
+        this.backupDirectory = backupDirectory;
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Checks password candidates in the order of the list.
+     *
+     * @param candidates Password candidates.
+     * @param listener Listener notified after each checked candidate, may be
+     * null. Notifications are serialized, so the number of checked candidates
+     * never decreases.
+     * @return Password unlocking the backup, empty string if the backup is not
+     * encrypted or null if no candidate matches.
+     * @throws BackupReadException, FileNotFoundException, InterruptedException
+     */
+    public String findPassword(final List<String> candidates, final PasswordTrialListener listener) throws BackupReadException, FileNotFoundException, InterruptedException {
+        if (!new ITunesBackup(backupDirectory).manifest.encrypted) {
+            return "";
+        }
+
+        final AtomicInteger nextCandidate = new AtomicInteger();
+        final AtomicInteger checkedCandidates = new AtomicInteger();
+        final AtomicReference<String> foundPassword = new AtomicReference<>();
+        final AtomicReference<ITunesBackup> unlockedBackup = new AtomicReference<>();
+        final long startTime = System.nanoTime();
+
+        int workers = Math.max(1, Math.min(workerCount, candidates.size()));
+        ExtractionWorkerPool workerPool = new ExtractionWorkerPool(workers);
+        List<Future<Void>> results = new ArrayList<>(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                results.add(workerPool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws BackupReadException, FileNotFoundException {
+                        int index;
+                        while (foundPassword.get() == null && !cancelled && (index = nextCandidate.getAndIncrement()) < candidates.size()) {
+                            ITunesBackup backup = new ITunesBackup(backupDirectory);
+                            String candidate = candidates.get(index);
+                            try {
+                                backup.manifest.getKeyBag().get().unlock(candidate);
+                                if (foundPassword.compareAndSet(null, candidate)) {
+                                    unlockedBackup.set(backup);
+                                }
+                            } catch (InvalidKeyException ex) {
+                                logger.log(Level.FINE, "Password candidate " + (index + 1) + " doesn't unlock the backup");
+                            }
+
+                            synchronized (progressLock) {
+                                int checked = checkedCandidates.incrementAndGet();
+                                if (listener != null) {
+                                    double seconds = (System.nanoTime() - startTime) / 1e9;
+                                    listener.candidateChecked(checked, candidates.size(), seconds > 0 ? checked / seconds : 0);
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+        } finally {
+            workerPool.awaitCompletion();
+        }
+
+        for (Future<Void> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof BackupReadException) {
+                    throw (BackupReadException) ex.getCause();
+                } else if (ex.getCause() instanceof FileNotFoundException) {
+                    throw (FileNotFoundException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+
+        String password = foundPassword.get();
+        if (password != null) {
+            UnlockedBackupCache.getInstance().put(unlockedBackup.get(), password);
+        }
+        logger.log(Level.INFO, checkedCandidates.get() + " of " + candidates.size() + " password candidates checked in "
+                + (System.nanoTime() - startTime) / 1000000 + " ms, password " + (password != null ? "found" : "not found"));
+        return password;
+    }
+
+    /**
+     * Stops the verification, candidates being checked are completed.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+
+/**
+ * Output of libimobiledevice commands parsed line by line as it arrives.
+ * Keeps only a bounded number of recent lines and error lines in memory,
+ * all lines may additionally be written to a log file.
+ */
+public class CommandOutputLog extends OutputStream {
+
+    private static final int MAX_LINES = 500;
+    private static final int MAX_ERROR_LINES = 50;
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final String ERROR_PREFIX = "ERROR:";
+    private final Pattern percentPattern = Pattern.compile("(\\d+)% Finished");
+    private final Charset charset = Charset.defaultCharset();
+    private final List<CommandOutputListener> listeners = new CopyOnWriteArrayList<>();
+    private final Deque<String> lines = new ArrayDeque<>();
+    private final Deque<String> errorLines = new ArrayDeque<>();
+    private final LineOutputStream defaultStream = new LineOutputStream();
+    private volatile int percent;
+    private Writer logWriter;
+
+    /**
+     * Writes all next lines to the log file.
+     *
+     * @param logFile File to which lines are appended, null to stop writing.
+     */
+    public synchronized void setLogFile(File logFile) {
+        closeLogFile();
+        if (logFile != null) {
+            try {
+                logWriter = new OutputStreamWriter(new FileOutputStream(logFile, true), charset);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Can't create command log file " + logFile.getAbsolutePath() + ": " + ex);
+            }
+        }
+    }
+
+    public void addListener(CommandOutputListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CommandOutputListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Creates stream for another output of the command (eg. stderr), so lines
+     * of different outputs are not mixed.
+     *
+     * @return Stream writing lines to this log.
+     */
+    public OutputStream newStream() {
+        return new LineOutputStream();
+    }
+
+    @Override
+    public void write(int b) {
+        defaultStream.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        defaultStream.write(b, off, len);
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (logWriter != null) {
+            try {
+                logWriter.flush();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Command log file problem: " + ex);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        defaultStream.close();
+        synchronized (this) {
+            closeLogFile();
+        }
+    }
+
+    /**
+     * Removes lines, errors and percent of the previous commands.
+     */
+    public void reset() {
+        defaultStream.reset();
+        synchronized (this) {
+            lines.clear();
+            errorLines.clear();
+            percent = 0;
+        }
+    }
+
+    /**
+     * @return Last percent of the backup creation reported by the command.
+     */
+    public int getPercent() {
+        return percent;
+    }
+
+    /**
+     * @return Recent output lines.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append("\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return Error lines reported by the commands.
+     */
+    public synchronized List<String> getErrorLines() {
+        return new ArrayList<>(errorLines);
+    }
+
+    /**
+     * @return True if any command reported an error.
+     */
+    public synchronized boolean hasErrors() {
+        return !errorLines.isEmpty();
+    }
+
+    private synchronized void addLine(String line) {
+        addLine(lines, line, MAX_LINES);
+        writeToLogFile(line);
+
+        Matcher matcher = percentPattern.matcher(line);
+        if (matcher.find()) {
+            try {
+                int newPercent = Integer.parseInt(matcher.group(1));
+                if (newPercent != percent) {
+                    percent = newPercent;
+                    for (CommandOutputListener listener : listeners) {
+                        listener.percentChanged(newPercent);
+                    }
+                }
+            } catch (NumberFormatException ex) {
+                logger.log(Level.FINE, "Wrong percent in line: " + line);
+            }
+        }
+
+        if (line.contains(ERROR_PREFIX)) {
+            addLine(errorLines, line, MAX_ERROR_LINES);
+            for (CommandOutputListener listener : listeners) {
+                listener.errorReported(line);
+            }
+        }
+    }
+
+    private static void addLine(Deque<String> buffer, String line, int maxLines) {
+        if (buffer.size() >= maxLines) {
+            buffer.removeFirst();
+        }
+        buffer.addLast(line);
+    }
+
+    private void writeToLogFile(String line) {
+        if (logWriter != null) {
+            try {
+                logWriter.write(line);
+                logWriter.write(System.lineSeparator());
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Command log file problem, log file closed: " + ex);
+                closeLogFile();
+            }
+        }
+    }
+
+    /**
+     * Stream assembling lines from the bytes of one output of the command.
+     */
+    private class LineOutputStream extends OutputStream {
+
+        private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n' || b == '\r') {
+                endLine();
+            } else if (currentLine.size() < MAX_LINE_LENGTH) {
+                currentLine.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int start = off;
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                if (b[i] == '\n' || b[i] == '\r') {
+                    appendToLine(b, start, i - start);
+                    endLine();
+                    start = i + 1;
+                }
+            }
+            appendToLine(b, start, end - start);
+        }
+
+        @Override
+        public synchronized void close() {
+            endLine();
+        }
+
+        synchronized void reset() {
+            currentLine.reset();
+        }
+
+        private void appendToLine(byte[] b, int off, int len) {
+            int length = Math.min(len, MAX_LINE_LENGTH - currentLine.size());
+            if (length > 0) {
+                currentLine.write(b, off, length);
+            }
+        }
+
+        private void endLine() {
+            if (currentLine.size() > 0) {
+                String line = new String(currentLine.toByteArray(), charset);
+                currentLine.reset();
+                addLine(line);
+            }
+        }
+    }
+
+    private void closeLogFile() {
+        if (logWriter != null) {
+            try {
+                logWriter.close();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Can't close command log file: " + ex);
+            }
+            logWriter = null;
+        }
+    }
+}
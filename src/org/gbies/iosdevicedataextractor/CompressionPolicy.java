@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Decides which ZIP archive entries are compressed (DEFLATED) and which are
+ * written without compression (STORED), and the deflate level of compressed
+ * entries.
+ */
+public enum CompressionPolicy {
+
+    /**
+     * All entries are compressed.
+     */
+    DEFLATE_ALL,
+    /**
+     * Already compressed content (photos, videos, audio, archives) recognized
+     * by file extension or signature is stored, other entries are compressed
+     * with the configured level.
+     */
+    CONTENT_AWARE,
+    /**
+     * All entries are stored without compression.
+     */
+    STORE_ALL;
+
+    /**
+     * Number of first bytes of the file needed to recognize its signature.
+     */
+    public static final int HEADER_LENGTH = 16;
+
+    private static final Set<String> INCOMPRESSIBLE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "heic", "heif", "png", "gif", "webp",
+            "mp4", "mov", "m4v", "3gp", "m4a", "mp3", "aac", "amr", "opus",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "ipa"));
+
+    /**
+     * @return True if content of the entry needs to be sniffed before the
+     * decision about compression.
+     */
+    public boolean needsHeader() {
+        return this == CONTENT_AWARE;
+    }
+
+    /**
+     * Checks if entry should be compressed.
+     *
+     * @param name Name of the entry.
+     * @param header First bytes of the entry content.
+     * @param headerLength Number of bytes in the header.
+     * @return True if entry should be DEFLATED, false if STORED.
+     */
+    public boolean isCompressed(String name, byte[] header, int headerLength) {
+        switch (this) {
+            case STORE_ALL:
+                return false;
+            case CONTENT_AWARE:
+                return !hasIncompressibleExtension(name) && !hasIncompressibleSignature(header, headerLength);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Gets deflate level of the entry.
+     *
+     * @param name Name of the entry.
+     * @param header First bytes of the entry content.
+     * @param headerLength Number of bytes in the header.
+     * @param level Configured deflate level.
+     * @return Deflate level of the entry or Deflater.NO_COMPRESSION if the
+     * entry should be STORED.
+     */
+    public int getLevel(String name, byte[] header, int headerLength, int level) {
+        if (!isCompressed(name, header, headerLength)) {
+            return Deflater.NO_COMPRESSION;
+        }
+        return level;
+    }
+
+    private static boolean hasIncompressibleExtension(String name) {
+        return hasExtension(name, INCOMPRESSIBLE_EXTENSIONS);
+    }
+
+    private static boolean hasExtension(String name, Set<String> extensions) {
+        int dotIndex = name.lastIndexOf('.');
+        if (dotIndex == -1 || dotIndex < Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'))) {
+            return false;
+        }
+        return extensions.contains(name.substring(dotIndex + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static boolean hasIncompressibleSignature(byte[] header, int length) {
+        if (header == null) {
+            return false;
+        }
+        return startsWith(header, length, 0, 0xFF, 0xD8, 0xFF) // JPEG
+                || startsWith(header, length, 0, 0x89, 'P', 'N', 'G') // PNG
+                || startsWith(header, length, 0, 'G', 'I', 'F', '8') // GIF
+                || startsWith(header, length, 4, 'f', 't', 'y', 'p') // HEIC, MP4, MOV, M4A, 3GP
+                || startsWith(header, length, 4, 'm', 'o', 'o', 'v') // QuickTime
+                || startsWith(header, length, 4, 'm', 'd', 'a', 't') // QuickTime
+                || (startsWith(header, length, 0, 'R', 'I', 'F', 'F') && startsWith(header, length, 8, 'W', 'E', 'B', 'P'))
+                || startsWith(header, length, 0, 'I', 'D', '3') // MP3
+                || startsWith(header, length, 0, '#', '!', 'A', 'M', 'R') // AMR
+                || startsWith(header, length, 0, 'P', 'K', 0x03, 0x04) // ZIP
+                || startsWith(header, length, 0, 0x1F, 0x8B) // GZIP
+                || startsWith(header, length, 0, 'B', 'Z', 'h') // BZIP2
+                || startsWith(header, length, 0, 0xFD, '7', 'z', 'X', 'Z', 0x00) // XZ
+                || startsWith(header, length, 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C); // 7-Zip
+    }
+
+    private static boolean startsWith(byte[] header, int length, int offset, int... signature) {
+        if (offset + signature.length > length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((header[offset + i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of the content digests of extracted files, shared by the workers.
+ * The first extracted file with the content is kept, later files with the
+ * same content are linked to it. Sizes of the files are indexed too, only
+ * file with already seen size is written to temporary file and looked up by
+ * its digest, so the content of the duplicate is read once and it doesn't
+ * replace the kept file. Digests and sizes of large
+ * backups are spilled to temporary files, see {@link SpillMap}.
+ */
+public class DeduplicationIndex implements Closeable {
+
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+    private final SpillMap files;
+    private final SpillMap sizes;
+    private final AtomicLong duplicateFiles = new AtomicLong();
+    private final AtomicLong duplicateBytes = new AtomicLong();
+
+    /**
+     * Main constructor.
+     *
+     * @param tempDirectory Directory of the temporary files.
+     */
+    public DeduplicationIndex(File tempDirectory) {
+        this.files = new SpillMap(tempDirectory);
+        this.sizes = new SpillMap(tempDirectory);
+    }
+
+    /**
+     * Adds the extracted file to the index.
+     *
+     * @param digest Hex digest of the file content.
+     * @param size Size of the file.
+     * @param file Extracted file.
+     * @return The first file with the same content or null if the content is
+     * new.
+     */
+    public File putIfAbsent(String digest, long size, File file) {
+        String firstFile = files.putIfAbsent(digest + ":" + size, file.getPath());
+        return firstFile != null ? new File(firstFile) : null;
+    }
+
+    /**
+     * @param digest Hex digest of the content.
+     * @param size Size of the content.
+     * @return The first extracted file with the content or null.
+     */
+    public File get(String digest, long size) {
+        String file = files.get(digest + ":" + size);
+        return file != null ? new File(file) : null;
+    }
+
+    /**
+     * Marks size of the file to be extracted.
+     *
+     * @param size Size of the file.
+     * @return True if a file with the same size has been already marked.
+     */
+    public boolean markSize(long size) {
+        return sizes.putIfAbsent(Long.toString(size), "") != null;
+    }
+
+    /**
+     * Counts file replaced with the link.
+     *
+     * @param size Size of the file.
+     */
+    public void addDuplicate(long size) {
+        duplicateFiles.incrementAndGet();
+        duplicateBytes.addAndGet(size);
+    }
+
+    public long getDuplicateFiles() {
+        return duplicateFiles.get();
+    }
+
+    public long getDuplicateBytes() {
+        return duplicateBytes.get();
+    }
+
+    /**
+     * Deletes the temporary files of the index.
+     */
+    @Override
+    public void close() {
+        files.close();
+        sizes.close();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Concurrent set of directories known to exist, so the directory of each
+ * extracted file is created with at most one system call per missing
+ * directory instead of checking every component of the path. Only the
+ * {@value #MAX_DIRECTORIES} most recently used directories are kept, files
+ * are extracted mostly directory by directory, a forgotten directory is only
+ * checked on the disk again.
+ */
+public class DirectoryCache {
+
+    private static final int MAX_DIRECTORIES = 10000;
+    private final String rootPath;
+    private final Set<String> knownDirectories = Collections.newSetFromMap(Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_DIRECTORIES;
+        }
+    }));
+
+    /**
+     * Main constructor.
+     *
+     * @param rootDirectory Existing directory in which the directories are
+     * created.
+     */
+    public DirectoryCache(File rootDirectory) {
+        rootPath = rootDirectory.getAbsolutePath();
+    }
+
+    /**
+     * Creates the directory and missing parent directories. Known directories
+     * are not checked on the disk.
+     *
+     * @param directory Directory to be created.
+     * @throws IOException if the directory can't be created.
+     */
+    public void createDirectories(File directory) throws IOException {
+        String path = directory.getAbsolutePath();
+        if (isKnown(directory)) {
+            return;
+        }
+        File parent = directory.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            createDirectories(parent);
+        }
+        if (!directory.mkdir() && !directory.isDirectory()) {
+            throw new IOException("Can't create directory " + path);
+        }
+        knownDirectories.add(path);
+    }
+
+    /**
+     * @param directory Directory to be checked.
+     * @return True if the directory is known to exist.
+     */
+    public boolean isKnown(File directory) {
+        String path = directory.getAbsolutePath();
+        return path.equals(rootPath) || knownDirectories.contains(path);
+    }
+}
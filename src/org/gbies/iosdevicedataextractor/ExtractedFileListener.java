@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.File;
+
+/**
+ * Listener notified about files written by the extraction.
+ */
+public interface ExtractedFileListener {
+
+    /**
+     * Called by the worker thread when the file is completely written. For
+     * extraction to ZIP archive, called with the archive when it is closed.
+     *
+     * @param file Extracted file.
+     */
+    void fileExtracted(File file);
+
+    /**
+     * Called by the worker thread when the directory of the DIRECTORY entry
+     * is created, so also empty directories are listed.
+     *
+     * @param directory Created directory.
+     */
+    void directoryCreated(File directory);
+}
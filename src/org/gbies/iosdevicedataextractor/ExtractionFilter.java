@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import org.gbies.iosbackupextractor.BackupFile;
+
+/**
+ * Selects backup files to be extracted. Domain and path globs (SQLite GLOB
+ * syntax: *, ?, [...], case sensitive) and file types are evaluated by the
+ * Manifest.db query, so excluded files are never read. Size is stored in the
+ * file metadata blob, so the size range is checked after the record is read,
+ * still before the file key is unwrapped.
+ */
+public class ExtractionFilter {
+
+    public static final long NO_LIMIT = -1;
+    private List<String> domainIncludes = new ArrayList<>();
+    private List<String> domainExcludes = new ArrayList<>();
+    private List<String> pathIncludes = new ArrayList<>();
+    private List<String> pathExcludes = new ArrayList<>();
+    private Set<BackupFile.FileType> fileTypes = EnumSet.allOf(BackupFile.FileType.class);
+    private long minSize = NO_LIMIT;
+    private long maxSize = NO_LIMIT;
+
+    /**
+     * @return True if all files are extracted.
+     */
+    public boolean isEmpty() {
+        return domainIncludes.isEmpty() && domainExcludes.isEmpty() && pathIncludes.isEmpty() && pathExcludes.isEmpty()
+                && fileTypes.size() == BackupFile.FileType.values().length && minSize == NO_LIMIT && maxSize == NO_LIMIT;
+    }
+
+    /**
+     * @return Conditions of the Files table query starting with " AND " or
+     * empty string, parameters are bound by bindParameters.
+     */
+    public String getWhereClause() {
+        StringBuilder clause = new StringBuilder();
+        appendGlobs(clause, "domain", domainIncludes, false);
+        appendGlobs(clause, "domain", domainExcludes, true);
+        appendGlobs(clause, "relativePath", pathIncludes, false);
+        appendGlobs(clause, "relativePath", pathExcludes, true);
+        if (fileTypes.isEmpty()) {
+            clause.append(" AND 0");
+        } else if (fileTypes.size() < BackupFile.FileType.values().length) {
+            clause.append(" AND flags IN (");
+            String separator = "";
+            for (BackupFile.FileType fileType : fileTypes) {
+                clause.append(separator).append(getFlags(fileType));
+                separator = ", ";
+            }
+            clause.append(")");
+        }
+        return clause.toString();
+    }
+
+    /**
+     * Binds globs of the where clause.
+     *
+     * @param statement Statement with the where clause.
+     * @param index Index of the first parameter of the where clause.
+     * @return Index of the next parameter.
+     * @throws SQLException
+     */
+    public int bindParameters(PreparedStatement statement, int index) throws SQLException {
+        for (List<String> globs : Arrays.asList(domainIncludes, domainExcludes, pathIncludes, pathExcludes)) {
+            for (String glob : globs) {
+                statement.setString(index++, glob);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param backupFile File read from Manifest.db.
+     * @return True if the size of the file is in the size range, directories
+     * and links are always accepted.
+     */
+    public boolean acceptsSize(BackupFile backupFile) {
+        if ((minSize == NO_LIMIT && maxSize == NO_LIMIT) || backupFile.getFileType() != BackupFile.FileType.FILE) {
+            return true;
+        }
+        long size = backupFile.getSize();
+        return (minSize == NO_LIMIT || size >= minSize) && (maxSize == NO_LIMIT || size <= maxSize);
+    }
+
+    private static void appendGlobs(StringBuilder clause, String column, List<String> globs, boolean exclude) {
+        if (globs.isEmpty()) {
+            return;
+        }
+        clause.append(exclude ? " AND NOT (" : " AND (");
+        for (int i = 0; i < globs.size(); i++) {
+            clause.append(i > 0 ? " OR " : "").append(column).append(" GLOB ?");
+        }
+        clause.append(")");
+    }
+
+    private static int getFlags(BackupFile.FileType fileType) {
+        switch (fileType) {
+            case DIRECTORY:
+                return 2;
+            case SYMBOLIC_LINK:
+                return 4;
+            default:
+                return 1;
+        }
+    }
+
+    public List<String> getDomainIncludes() {
+        return Collections.unmodifiableList(domainIncludes);
+    }
+
+    /**
+     * @param domainIncludes Globs of the domains to be extracted, e.g.
+     * HomeDomain or AppDomain-net.whatsapp.*, empty for all domains.
+     */
+    public void setDomainIncludes(List<String> domainIncludes) {
+        this.domainIncludes = new ArrayList<>(domainIncludes);
+    }
+
+    public List<String> getDomainExcludes() {
+        return Collections.unmodifiableList(domainExcludes);
+    }
+
+    public void setDomainExcludes(List<String> domainExcludes) {
+        this.domainExcludes = new ArrayList<>(domainExcludes);
+    }
+
+    public List<String> getPathIncludes() {
+        return Collections.unmodifiableList(pathIncludes);
+    }
+
+    /**
+     * @param pathIncludes Globs of the relative paths to be extracted, e.g.
+     * Library/SMS/*, empty for all paths.
+     */
+    public void setPathIncludes(List<String> pathIncludes) {
+        this.pathIncludes = new ArrayList<>(pathIncludes);
+    }
+
+    public List<String> getPathExcludes() {
+        return Collections.unmodifiableList(pathExcludes);
+    }
+
+    public void setPathExcludes(List<String> pathExcludes) {
+        this.pathExcludes = new ArrayList<>(pathExcludes);
+    }
+
+    public Set<BackupFile.FileType> getFileTypes() {
+        return Collections.unmodifiableSet(fileTypes);
+    }
+
+    public void setFileTypes(Set<BackupFile.FileType> fileTypes) {
+        this.fileTypes = fileTypes.isEmpty() ? EnumSet.noneOf(BackupFile.FileType.class) : EnumSet.copyOf(fileTypes);
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @param minSize Minimum size of the extracted files or NO_LIMIT.
+     */
+    public void setMinSize(long minSize) {
+        this.minSize = minSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize Maximum size of the extracted files or NO_LIMIT.
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+
+/**
+ * Checkpoint journal of the extraction, saved next to the extract directory
+ * (so it is not added to the data source). Every
+ * completely written BackupFile is appended as one line with its fileID, size,
+ * optional digest, fingerprint and location (relative path in the extract
+ * folder or offset of the entry in the ZIP archive, "=" and the offset of the
+ * entry with the same content for deduplicated entry). When the extraction is
+ * interrupted, the journal is used to skip already extracted files. Journal of
+ * the completed extraction is the index used by incremental extraction.
+ *
+ * Each line starts with CRC-32 of the record, torn or damaged lines of the
+ * interrupted journal are skipped. Written records are forced to the disk
+ * every {@value #FLUSH_RECORDS} records or {@value #FLUSH_INTERVAL} ms.
+ * Records and locations are indexed in {@link SpillMap}, so the index of the
+ * large backup is kept in temporary files, the records are iterated in the
+ * journal file.
+ */
+public class ExtractionJournal implements Closeable {
+
+    public static final String FILE_EXTENSION = ".journal";
+    private static final String COMPLETE_MARK = "#complete";
+    private static final int FLUSH_RECORDS = 1000;
+    private static final long FLUSH_INTERVAL = 1000;
+    private final File extractDirectory;
+    private final File journalFile;
+    private final SpillMap records;
+    private final SpillMap locations;
+    private FileOutputStream stream;
+    private Writer writer;
+    private boolean complete;
+    private int unflushedRecords;
+    private long lastFlushTime;
+    private Flushable syncedOutput;
+
+    /**
+     * Opens journal of the extract directory, records of the previous
+     * extraction to this directory are read.
+     *
+     * @param extractDirectory The folder where the backup is extracted.
+     * @throws IOException
+     */
+    public ExtractionJournal(File extractDirectory) throws IOException {
+        this(extractDirectory, false);
+    }
+
+    private ExtractionJournal(File extractDirectory, boolean readOnly) throws IOException {
+        this.extractDirectory = extractDirectory;
+        this.journalFile = getJournalFile(extractDirectory);
+        this.records = new SpillMap(journalFile.getAbsoluteFile().getParentFile());
+        this.locations = new SpillMap(journalFile.getAbsoluteFile().getParentFile());
+        if (journalFile.exists()) {
+            read();
+        }
+        this.writer = readOnly ? null : openWriter();
+        this.lastFlushTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Finds the latest completed extraction of the device and reads its
+     * journal.
+     *
+     * @param parentDirectory The folder containing extract directories.
+     * @param uniqueDeviceID Unique device ID of the backup.
+     * @param currentDirectory Extract directory of the current extraction,
+     * excluded from the search.
+     * @return Read only journal of the previous extraction or null.
+     */
+    public static ExtractionJournal findPreviousExtraction(File parentDirectory, String uniqueDeviceID, File currentDirectory) {
+        File[] directories = parentDirectory.listFiles();
+        if (directories == null) {
+            return null;
+        }
+
+        File latest = null;
+        for (File directory : directories) {
+            if (!directory.isDirectory() || directory.equals(currentDirectory) || !directory.getName().startsWith(uniqueDeviceID + "_extract_")) {
+                continue;
+            }
+            File journal = getJournalFile(directory);
+            if (journal.exists() && isComplete(journal)
+                    && (latest == null || directory.getName().compareTo(latest.getName()) > 0)) {
+                latest = directory;
+            }
+        }
+
+        if (latest == null) {
+            return null;
+        }
+        try {
+            return new ExtractionJournal(latest, true);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can't read extraction journal of " + latest.getAbsolutePath() + " :" + ex);
+            return null;
+        }
+    }
+
+    /**
+     * Finds the latest extraction of the device which has not been completed.
+     *
+     * @param parentDirectory The folder containing extract directories.
+     * @param uniqueDeviceID Unique device ID of the backup.
+     * @return Extract directory to be resumed or null.
+     */
+    public static File findIncompleteExtraction(File parentDirectory, String uniqueDeviceID) {
+        File[] directories = parentDirectory.listFiles();
+        if (directories == null) {
+            return null;
+        }
+
+        File latest = null;
+        for (File directory : directories) {
+            if (!directory.isDirectory() || !directory.getName().startsWith(uniqueDeviceID + "_extract_")) {
+                continue;
+            }
+            File journal = getJournalFile(directory);
+            if (journal.exists() && !isComplete(journal)
+                    && (latest == null || directory.getName().compareTo(latest.getName()) > 0)) {
+                latest = directory;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Appends record of the completely written file.
+     *
+     * @param fileID FileID of the BackupFile.
+     * @param size Number of bytes written.
+     * @param digest Hex digest of the content or null.
+     * @param fingerprint Fingerprint of the backup file or null.
+     * @param location Relative path of the file or offset of the ZIP entry.
+     */
+    public synchronized void record(String fileID, long size, String digest, String fingerprint, String location) {
+        checkWritable();
+        String line = new Record(fileID, size, digest, fingerprint, location).toLine();
+        records.put(fileID, line);
+        locations.put(location, fileID);
+        try {
+            writer.write(line + "\n");
+            unflushedRecords++;
+            long now = System.currentTimeMillis();
+            if (unflushedRecords >= FLUSH_RECORDS || now - lastFlushTime >= FLUSH_INTERVAL) {
+                sync();
+                unflushedRecords = 0;
+                lastFlushTime = now;
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can't write extraction journal " + journalFile.getAbsolutePath() + " :" + ex);
+        }
+    }
+
+    /**
+     * @param fileID FileID of the BackupFile.
+     * @return Record of the extracted file or null if the file has not been
+     * extracted.
+     */
+    public synchronized Record getRecord(String fileID) {
+        String line = records.get(fileID);
+        return line != null ? Record.fromLine(line) : null;
+    }
+
+    /**
+     * @param location Relative path of the file or offset of the ZIP entry.
+     * @return True if the location belongs to already extracted file.
+     */
+    public synchronized boolean isRecordedLocation(String location) {
+        return locations.get(location) != null;
+    }
+
+    /**
+     * Passes the current record of each extracted file to the action in the
+     * order in which the files were recorded.
+     *
+     * @param action Action called for each record.
+     * @throws IOException
+     */
+    public synchronized void forEachRecord(Consumer<Record> action) throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record = Record.fromLine(line);
+                if (record != null && line.equals(records.get(record.getFileID()))) {
+                    action.accept(record);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of extracted files.
+     */
+    public synchronized long size() {
+        return records.size();
+    }
+
+    /**
+     * Keeps only current records with valid locations and rewrites the
+     * journal, used when the end of the interrupted output is not valid.
+     *
+     * @param validLocation Test of the location of the record to be kept.
+     * @throws IOException
+     */
+    public synchronized void retainLocations(Predicate<String> validLocation) throws IOException {
+        checkWritable();
+        writer.close();
+        File tempFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8));
+                FileOutputStream tempStream = new FileOutputStream(tempFile)) {
+            Writer tempWriter = new BufferedWriter(new OutputStreamWriter(tempStream, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record = Record.fromLine(line);
+                if (record != null && line.equals(records.get(record.getFileID())) && validLocation.test(record.getLocation())) {
+                    tempWriter.write(line + "\n");
+                }
+            }
+            tempWriter.flush();
+            tempStream.getChannel().force(false);
+        }
+        Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        records.close();
+        locations.close();
+        read();
+        writer = openWriter();
+    }
+
+    /**
+     * Sets output flushed before the records are forced to the disk, so the
+     * journal doesn't list files missing in the output, e.g. in the hash
+     * manifest.
+     *
+     * @param syncedOutput Output flushed with the journal or null.
+     */
+    public synchronized void setSyncedOutput(Flushable syncedOutput) {
+        this.syncedOutput = syncedOutput;
+    }
+
+    /**
+     * Marks the extraction as completed, completed extraction is not resumed.
+     */
+    public synchronized void markComplete() {
+        checkWritable();
+        try {
+            writer.write(COMPLETE_MARK + "\n");
+            sync();
+            complete = true;
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can't write extraction journal " + journalFile.getAbsolutePath() + " :" + ex);
+        }
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return The folder where the backup is extracted.
+     */
+    public File getExtractDirectory() {
+        return extractDirectory;
+    }
+
+    /**
+     * Closes the journal and deletes temporary files of its index.
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (writer != null && stream.getChannel().isOpen()) {
+                try {
+                    sync();
+                } finally {
+                    writer.close();
+                }
+            }
+        } finally {
+            records.close();
+            locations.close();
+        }
+    }
+
+    /**
+     * Deletes the journal, called when the output of the extraction is deleted.
+     */
+    public synchronized void delete() {
+        try {
+            close();
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "Can't close extraction journal: " + ex);
+        }
+        if (!journalFile.delete()) {
+            logger.log(Level.WARNING, "Can't delete extraction journal " + journalFile.getAbsolutePath());
+        }
+    }
+
+    private void checkWritable() {
+        if (writer == null) {
+            throw new IllegalStateException("Journal of the previous extraction is read only");
+        }
+    }
+
+    private static File getJournalFile(File extractDirectory) {
+        return new File(extractDirectory.getParentFile(), extractDirectory.getName() + FILE_EXTENSION);
+    }
+
+    /**
+     * Opens the journal for appending. Torn last line of the interrupted
+     * journal is terminated, so it doesn't damage the next record.
+     */
+    private Writer openWriter() throws IOException {
+        boolean terminated = true;
+        if (journalFile.length() > 0) {
+            try (RandomAccessFile file = new RandomAccessFile(journalFile, "r")) {
+                file.seek(file.length() - 1);
+                terminated = file.read() == '\n';
+            }
+        }
+        stream = new FileOutputStream(journalFile, true);
+        Writer newWriter = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        if (!terminated) {
+            newWriter.write("\n");
+        }
+        return newWriter;
+    }
+
+    /**
+     * Flushes the synced output, writes buffered records and forces them to
+     * the disk.
+     */
+    private void sync() throws IOException {
+        if (syncedOutput != null) {
+            syncedOutput.flush();
+        }
+        writer.flush();
+        stream.getChannel().force(false);
+    }
+
+    private void read() throws IOException {
+        long damagedRecords = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (COMPLETE_MARK.equals(line)) {
+                    complete = true;
+                    continue;
+                }
+                Record record = Record.fromLine(line);
+                if (record != null) {
+                    records.put(record.getFileID(), line);
+                    locations.put(record.getLocation(), record.getFileID());
+                } else if (!line.isEmpty()) {
+                    damagedRecords++;
+                }
+            }
+        }
+        logger.log(Level.INFO, "Extraction journal " + journalFile.getAbsolutePath() + " read, " + records.size() + " files recorded");
+        if (damagedRecords > 0) {
+            logger.log(Level.WARNING, damagedRecords + " damaged records of extraction journal " + journalFile.getAbsolutePath() + " skipped");
+        }
+    }
+
+    private static boolean isComplete(File journal) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), StandardCharsets.UTF_8))) {
+            String line;
+            String lastLine = null;
+            while ((line = reader.readLine()) != null) {
+                lastLine = line;
+            }
+            return COMPLETE_MARK.equals(lastLine);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can't read extraction journal " + journal.getAbsolutePath() + " :" + ex);
+            return true;
+        }
+    }
+
+    /**
+     * Extracted file saved in the journal.
+     */
+    public static class Record {
+
+        private final String fileID;
+        private final long size;
+        private final String digest;
+        private final String fingerprint;
+        private final String location;
+
+        Record(String fileID, long size, String digest, String fingerprint, String location) {
+            this.fileID = fileID;
+            this.size = size;
+            this.digest = digest;
+            this.fingerprint = fingerprint;
+            this.location = location;
+        }
+
+        public String getFileID() {
+            return fileID;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return Hex digest of the content or null if not computed.
+         */
+        public String getDigest() {
+            return digest;
+        }
+
+        /**
+         * @return Fingerprint of the backup file or null.
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        /**
+         * Location is the last field, so it can contain tabulators. New lines
+         * in the location are escaped. The line starts with CRC-32 of the
+         * fields and is returned without the line terminator.
+         */
+        String toLine() {
+            String fields = fileID + "\t" + size + "\t" + (digest != null ? digest : "-") + "\t" + (fingerprint != null ? fingerprint : "-") + "\t"
+                    + location.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+            return checksum(fields) + "\t" + fields;
+        }
+
+        /**
+         * @return Record or null if the line is torn or damaged.
+         */
+        static Record fromLine(String line) {
+            int checksumEnd = line.indexOf('\t');
+            if (checksumEnd < 0 || !line.substring(0, checksumEnd).equals(checksum(line.substring(checksumEnd + 1)))) {
+                return null;
+            }
+            String[] fields = line.substring(checksumEnd + 1).split("\t", 5);
+            if (fields.length < 5) {
+                return null;
+            }
+            try {
+                StringBuilder location = new StringBuilder();
+                String escaped = fields[4];
+                for (int i = 0; i < escaped.length(); i++) {
+                    char c = escaped.charAt(i);
+                    if (c == '\\' && i + 1 < escaped.length()) {
+                        char next = escaped.charAt(++i);
+                        location.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+                    } else {
+                        location.append(c);
+                    }
+                }
+                return new Record(fields[0], Long.parseLong(fields[1]), "-".equals(fields[2]) ? null : fields[2],
+                        "-".equals(fields[3]) ? null : fields[3], location.toString());
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        private static String checksum(String fields) {
+            CRC32 crc = new CRC32();
+            crc.update(fields.getBytes(StandardCharsets.UTF_8));
+            return String.format("%08x", crc.getValue());
+        }
+    }
+}
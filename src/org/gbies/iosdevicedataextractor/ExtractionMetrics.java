@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+
+/**
+ * Performance metrics of the phases of adding iOS device data (backup,
+ * unlock, Manifest.db decryption, files extraction, adding data source). For
+ * each phase the wall time, CPU time of the module threads, bytes, files,
+ * histograms of per-file latency and throughput and errors by type are
+ * recorded. CPU time of external commands is not included.
+ *
+ * Phase started on the thread of a running phase is nested in it, the
+ * running phase is paused until the nested phase ends. Wall and CPU times of
+ * the phases are exclusive, so the time of the nested phase is not counted
+ * twice.
+ *
+ * The metrics are written as JSON report next to the extract directory and
+ * summarized in the log.
+ */
+public class ExtractionMetrics {
+
+    public static final String FILE_EXTENSION = ".metrics.json";
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+    private static final ThreadLocal<Phase> runningPhase = new ThreadLocal<>();
+    private final Map<String, Phase> phases = new ConcurrentHashMap<>();
+    private final List<String> phaseOrder = new ArrayList<>();
+
+    /**
+     * Starts measuring of the phase on the current thread. The phase can be
+     * started again, the times are added. The phase running on the current
+     * thread is paused until the started phase ends.
+     *
+     * @param name Name of the phase.
+     * @return Started phase.
+     */
+    public Phase startPhase(String name) {
+        Phase phase = getPhase(name);
+        phase.start();
+        return phase;
+    }
+
+    /**
+     * @param name Name of the phase.
+     * @return Phase with the name, created if needed.
+     */
+    public Phase getPhase(String name) {
+        synchronized (phaseOrder) {
+            Phase phase = phases.get(name);
+            if (phase == null) {
+                phase = new Phase(name);
+                phases.put(name, phase);
+                phaseOrder.add(name);
+            }
+            return phase;
+        }
+    }
+
+    /**
+     * Writes the JSON report next to the extract directory and summarizes
+     * the metrics in the log.
+     *
+     * @param extractDirectory The folder where the backup is extracted.
+     */
+    public void writeReport(File extractDirectory) {
+        File directory = extractDirectory.getAbsoluteFile();
+        File reportFile = new File(directory.getParentFile(), directory.getName() + FILE_EXTENSION);
+        try {
+            Files.write(reportFile.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can't write extraction metrics report " + reportFile.getAbsolutePath() + " :" + ex);
+        }
+
+        for (Phase phase : getPhases()) {
+            logger.log(Level.INFO, phase.getSummary());
+        }
+    }
+
+    /**
+     * @return Metrics of all phases as JSON object.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"phases\": [");
+        String separator = "\n";
+        for (Phase phase : getPhases()) {
+            json.append(separator);
+            phase.appendJson(json);
+            separator = ",\n";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    private List<Phase> getPhases() {
+        List<Phase> orderedPhases = new ArrayList<>();
+        synchronized (phaseOrder) {
+            for (String name : phaseOrder) {
+                orderedPhases.add(phases.get(name));
+            }
+        }
+        return orderedPhases;
+    }
+
+    private static long getThreadCpuTime() {
+        return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Metrics of one phase. Files and errors can be recorded from many
+     * threads.
+     */
+    public static class Phase {
+
+        private final String name;
+        private final AtomicLong wallNanos = new AtomicLong();
+        private final AtomicLong cpuNanos = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong files = new AtomicLong();
+        private final Histogram latencyMicros = new Histogram();
+        private final Histogram throughputKBps = new Histogram();
+        private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+        private long startWall;
+        private long startCpu;
+        private Phase parent;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        void start() {
+            Phase running = runningPhase.get();
+            if (running != null && running != this) {
+                running.pause();
+            } else {
+                running = null;
+            }
+            synchronized (this) {
+                parent = running;
+                resume();
+            }
+            runningPhase.set(this);
+        }
+
+        /**
+         * Ends the phase started on the current thread, the phase in which it
+         * is nested is resumed.
+         */
+        public void end() {
+            Phase resumed;
+            synchronized (this) {
+                pause();
+                resumed = parent;
+                parent = null;
+            }
+            if (runningPhase.get() != this) {
+                return;
+            }
+            if (resumed != null) {
+                resumed.resume();
+                runningPhase.set(resumed);
+            } else {
+                runningPhase.remove();
+            }
+        }
+
+        private synchronized void pause() {
+            wallNanos.addAndGet(System.nanoTime() - startWall);
+            cpuNanos.addAndGet(getThreadCpuTime() - startCpu);
+        }
+
+        private synchronized void resume() {
+            startWall = System.nanoTime();
+            startCpu = getThreadCpuTime();
+        }
+
+        /**
+         * Starts measuring of one file on the current thread.
+         *
+         * @return Timer to be ended when the file is processed.
+         */
+        public FileTimer startFile() {
+            return new FileTimer(this);
+        }
+
+        /**
+         * Counts error of the phase by its type.
+         *
+         * @param error Error of the phase.
+         */
+        public void recordError(Throwable error) {
+            String type = error.getClass().getSimpleName();
+            AtomicLong count = errors.get(type);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = errors.putIfAbsent(type, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        /**
+         * Adds bytes processed by the phase without per-file timing.
+         *
+         * @param count Number of bytes.
+         */
+        public void addBytes(long count) {
+            bytes.addAndGet(count);
+        }
+
+        void recordFile(long fileBytes, long fileWallNanos, long fileCpuNanos) {
+            files.incrementAndGet();
+            bytes.addAndGet(fileBytes);
+            cpuNanos.addAndGet(fileCpuNanos);
+            latencyMicros.add(fileWallNanos / 1000);
+            if (fileBytes > 0 && fileWallNanos > 0) {
+                throughputKBps.add((fileBytes * 1000000000L / 1024) / fileWallNanos);
+            }
+        }
+
+        String getSummary() {
+            long wallMillis = wallNanos.get() / 1000000;
+            StringBuilder summary = new StringBuilder("Phase ").append(name).append(": ")
+                    .append(wallMillis).append(" ms wall, ")
+                    .append(cpuNanos.get() / 1000000).append(" ms CPU");
+            if (files.get() > 0 || bytes.get() > 0) {
+                summary.append(", ").append(files.get()).append(" files, ").append(bytes.get()).append(" bytes");
+                if (wallMillis > 0) {
+                    summary.append(", ").append(String.format("%.2f", bytes.get() * 1000.0 / wallMillis / (1024 * 1024))).append(" MB/s");
+                }
+            }
+            if (latencyMicros.getCount() > 0) {
+                summary.append(", file latency p50/p99 ").append(latencyMicros.getPercentile(0.5))
+                        .append("/").append(latencyMicros.getPercentile(0.99)).append(" us");
+            }
+            if (!errors.isEmpty()) {
+                summary.append(", errors ").append(new TreeMap<>(errors));
+            }
+            return summary.toString();
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append("    {\n");
+            json.append("      \"name\": ").append(quote(name)).append(",\n");
+            json.append("      \"wallMillis\": ").append(wallNanos.get() / 1000000).append(",\n");
+            json.append("      \"cpuMillis\": ").append(cpuNanos.get() / 1000000).append(",\n");
+            json.append("      \"files\": ").append(files.get()).append(",\n");
+            json.append("      \"bytes\": ").append(bytes.get()).append(",\n");
+            json.append("      \"latencyMicros\": ");
+            latencyMicros.appendJson(json);
+            json.append(",\n      \"throughputKBps\": ");
+            throughputKBps.appendJson(json);
+            json.append(",\n      \"errors\": {");
+            String separator = "";
+            for (Map.Entry<String, AtomicLong> error : new TreeMap<>(errors).entrySet()) {
+                json.append(separator).append(quote(error.getKey())).append(": ").append(error.getValue().get());
+                separator = ", ";
+            }
+            json.append("}\n    }");
+        }
+    }
+
+    /**
+     * Measures wall and CPU time of one file processed by the current
+     * thread.
+     */
+    public static class FileTimer {
+
+        private final Phase phase;
+        private final long startWall;
+        private final long startCpu;
+
+        FileTimer(Phase phase) {
+            this.phase = phase;
+            this.startWall = System.nanoTime();
+            this.startCpu = getThreadCpuTime();
+        }
+
+        /**
+         * @param fileBytes Number of bytes of the processed file.
+         */
+        public void end(long fileBytes) {
+            phase.recordFile(fileBytes, System.nanoTime() - startWall, getThreadCpuTime() - startCpu);
+        }
+    }
+
+    /**
+     * Histogram with power of two buckets, percentiles are upper bounds of
+     * the buckets.
+     */
+    private static class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong();
+
+        void add(long value) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, value)));
+            count.incrementAndGet();
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getPercentile(double percentile) {
+            long total = count.get();
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append("{\"count\": ").append(count.get());
+            for (double percentile : PERCENTILES) {
+                json.append(", \"p").append((int) Math.round(percentile * 100)).append("\": ").append(getPercentile(percentile));
+            }
+            json.append(", \"buckets\": [");
+            int last = buckets.length() - 1;
+            while (last > 0 && buckets.get(last) == 0) {
+                last--;
+            }
+            for (int i = 0; i <= last; i++) {
+                json.append(i > 0 ? ", " : "").append(buckets.get(i));
+            }
+            json.append("]}");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import org.gbies.iosbackupextractor.BackupFile;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+
+/**
+ * Decides in which order files of the batch read from Manifest.db are
+ * extracted and how they are divided between the workers.
+ */
+public enum ExtractionOrder {
+
+    /**
+     * Files are extracted in the fileID order of Manifest.db, each file is a
+     * separate task. ZIP entries are always written in the same order.
+     */
+    MANIFEST,
+    /**
+     * Files are grouped by the hashed content directory (first two characters
+     * of the fileID) and kept in fileID order inside the directory. Each
+     * directory is extracted by one worker.
+     */
+    LOCALITY,
+    /**
+     * Like LOCALITY, files are sorted by inode inside the directory, so the
+     * source on a local disk is read sequentially. The inode is read with one
+     * stat of every content file before extraction, which is slow on network
+     * storage, so the order has to be chosen explicitly.
+     */
+    INODE;
+
+    private static volatile boolean inodeSupported = true;
+
+    /**
+     * Divides the batch into runs of files extracted one after another.
+     *
+     * @param batch Files read from Manifest.db in fileID order.
+     * @return Runs of files in the extraction order.
+     */
+    public List<List<BackupFile>> schedule(List<BackupFile> batch) {
+        List<List<BackupFile>> runs = new ArrayList<>();
+        if (this == MANIFEST) {
+            for (BackupFile backupFile : batch) {
+                runs.add(Collections.singletonList(backupFile));
+            }
+            return runs;
+        }
+
+        Map<String, List<ScheduledFile>> directories = new TreeMap<>();
+        for (BackupFile backupFile : batch) {
+            String directory = getContentDirectory(backupFile);
+            List<ScheduledFile> files = directories.get(directory);
+            if (files == null) {
+                files = new ArrayList<>();
+                directories.put(directory, files);
+            }
+            files.add(new ScheduledFile(backupFile, this == INODE ? getInode(backupFile) : -1));
+        }
+        for (List<ScheduledFile> files : directories.values()) {
+            Collections.sort(files, new Comparator<ScheduledFile>() {
+                @Override
+                public int compare(ScheduledFile first, ScheduledFile second) {
+                    int result = Long.compare(first.inode, second.inode);
+                    return result != 0 ? result : first.backupFile.fileID.compareTo(second.backupFile.fileID);
+                }
+            });
+            List<BackupFile> run = new ArrayList<>(files.size());
+            for (ScheduledFile file : files) {
+                run.add(file.backupFile);
+            }
+            runs.add(run);
+        }
+        return runs;
+    }
+
+    private static String getContentDirectory(BackupFile backupFile) {
+        String fileID = backupFile.fileID;
+        return fileID != null && fileID.length() >= 2 ? fileID.substring(0, 2) : "";
+    }
+
+    /**
+     * @return Inode number of the content file, -1 for entries without
+     * content or if the file system doesn't report inodes (files are then
+     * kept in fileID order).
+     */
+    private static long getInode(BackupFile backupFile) {
+        if (!inodeSupported || backupFile.getFileType() != BackupFile.FileType.FILE) {
+            return -1;
+        }
+        File contentFile = backupFile.getContentFile().orElse(null);
+        if (contentFile == null) {
+            return -1;
+        }
+        try {
+            Object inode = Files.getAttribute(contentFile.toPath(), "unix:ino");
+            return inode instanceof Number ? ((Number) inode).longValue() : -1;
+        } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+            inodeSupported = false;
+            logger.log(Level.INFO, "Inode numbers not available, files are extracted in fileID order: " + ex);
+            return -1;
+        } catch (IOException | SecurityException ex) {
+            return -1;
+        }
+    }
+
+    private static class ScheduledFile {
+
+        private final BackupFile backupFile;
+        private final long inode;
+
+        private ScheduledFile(BackupFile backupFile, long inode) {
+            this.backupFile = backupFile;
+            this.inode = inode;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+/**
+ * Snapshot of the files extraction progress.
+ */
+public class ExtractionProgress {
+
+    private final long extractedBytes;
+    private final long skippedBytes;
+    private final long totalBytes;
+    private final long extractedFiles;
+    private final long totalFiles;
+    private final long elapsedMillis;
+    private final int percent;
+    private final boolean completed;
+
+    public ExtractionProgress(long extractedBytes, long skippedBytes, long totalBytes, long extractedFiles, long totalFiles, long elapsedMillis, int percent, boolean completed) {
+        this.extractedBytes = extractedBytes;
+        this.skippedBytes = skippedBytes;
+        this.totalBytes = totalBytes;
+        this.extractedFiles = extractedFiles;
+        this.totalFiles = totalFiles;
+        this.elapsedMillis = elapsedMillis;
+        this.percent = percent;
+        this.completed = completed;
+    }
+
+    public long getExtractedBytes() {
+        return extractedBytes;
+    }
+
+    /**
+     * @return Size of the files not copied in this run, i.e. already
+     * extracted, linked or deduplicated.
+     */
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /**
+     * @return Estimated size of all files or 0 if not yet known.
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getExtractedFiles() {
+        return extractedFiles;
+    }
+
+    /**
+     * @return Estimated number of all files or 0 if not yet known.
+     */
+    public long getTotalFiles() {
+        return totalFiles;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public int getPercent() {
+        return percent;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return Average extraction speed in bytes per second, skipped files are
+     * not included.
+     */
+    public long getBytesPerSecond() {
+        return elapsedMillis > 0 ? (extractedBytes * 1000) / elapsedMillis : 0;
+    }
+
+    /**
+     * @return Estimated time to the end of extraction in seconds or -1 if
+     * unknown.
+     */
+    public long getRemainingSeconds() {
+        long bytesPerSecond = getBytesPerSecond();
+        if (completed) {
+            return 0;
+        }
+        if (totalBytes <= 0 || bytesPerSecond <= 0) {
+            return -1;
+        }
+        return Math.max(0, totalBytes - extractedBytes - skippedBytes) / bytesPerSecond;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+
+/**
+ * Counts bytes and files extracted by the worker threads and notifies
+ * listeners about the progress. Until the size of the backup is estimated,
+ * the percent is estimated from the position of the Manifest.db cursor.
+ */
+public class ExtractionProgressTracker {
+
+    private static final long NOTIFY_INTERVAL = 250;
+    private final List<ExtractionProgressListener> listeners;
+    private final AtomicLong extractedBytes;
+    private final AtomicLong skippedBytes;
+    private final AtomicLong extractedFiles;
+    private final AtomicLong lastNotifyTime;
+    private final long startTime;
+    private volatile long totalBytes;
+    private volatile long totalFiles;
+    private volatile int cursorPercent;
+    private volatile boolean completed;
+    private volatile boolean cancelled;
+
+    /**
+     * Main constructor.
+     *
+     * @param listeners Listeners notified about the progress.
+     */
+    public ExtractionProgressTracker(List<ExtractionProgressListener> listeners) {
+        this.listeners = new CopyOnWriteArrayList<>(listeners);
+        this.extractedBytes = new AtomicLong();
+        this.skippedBytes = new AtomicLong();
+        this.extractedFiles = new AtomicLong();
+        this.lastNotifyTime = new AtomicLong();
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Estimates number and size of files from the content files in the backup
+     * directory. Runs in background, so the extraction is not delayed.
+     *
+     * @param backupDirectory The folder containing the iOS backup files.
+     */
+    public void estimateTotals(final File backupDirectory) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long bytes = 0;
+                long files = 0;
+                File[] contentDirectories = backupDirectory.listFiles();
+                if (contentDirectories == null) {
+                    return;
+                }
+                for (File contentDirectory : contentDirectories) {
+                    if (completed || cancelled) {
+                        return;
+                    }
+                    if (contentDirectory.getName().length() != 2 || !contentDirectory.isDirectory()) {
+                        continue;
+                    }
+                    File[] contentFiles = contentDirectory.listFiles();
+                    if (contentFiles != null) {
+                        for (File contentFile : contentFiles) {
+                            bytes += contentFile.length();
+                            files++;
+                        }
+                    }
+                }
+                totalFiles = files;
+                totalBytes = bytes;
+                logger.log(Level.INFO, "Estimated backup size: {0} files, {1} bytes", new Object[]{files, bytes});
+            }
+        }, "iOSDataExtractor-size-estimate");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds extracted bytes, called while the data is copied.
+     *
+     * @param bytes Number of bytes.
+     */
+    public void addBytes(long bytes) {
+        extractedBytes.addAndGet(bytes);
+        notifyIfDue();
+    }
+
+    /**
+     * Adds size of the file not copied in this run (already extracted by the
+     * interrupted extraction, linked from the previous extraction or
+     * deduplicated). The size counts to the percent, not to the speed.
+     *
+     * @param bytes Size of the file.
+     */
+    public void addSkippedBytes(long bytes) {
+        skippedBytes.addAndGet(bytes);
+        notifyIfDue();
+    }
+
+    /**
+     * Adds extracted file, called when file is completely extracted.
+     */
+    public void addFile() {
+        extractedFiles.incrementAndGet();
+        notifyIfDue();
+    }
+
+    /**
+     * @param percent Percent of Manifest.db files read by the cursor.
+     */
+    public void setCursorPercent(int percent) {
+        cursorPercent = percent;
+    }
+
+    /**
+     * Marks extraction as completed and notifies listeners.
+     */
+    public void finish() {
+        completed = true;
+        notifyListeners();
+    }
+
+    /**
+     * Requests cancellation of the extraction. Workers check the flag between
+     * files and while copying data of large files.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return True if the extraction has been cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return Percent of the extracted data.
+     */
+    public int getPercent() {
+        if (completed) {
+            return 100;
+        }
+        long total = totalBytes;
+        int percent = total > 0 ? (int) (((extractedBytes.get() + skippedBytes.get()) * 100) / total) : cursorPercent;
+        return Math.min(percent, 99);
+    }
+
+    /**
+     * @return Current progress snapshot.
+     */
+    public ExtractionProgress getProgress() {
+        return new ExtractionProgress(extractedBytes.get(), skippedBytes.get(), totalBytes, extractedFiles.get(), totalFiles,
+                System.currentTimeMillis() - startTime, getPercent(), completed);
+    }
+
+    private void notifyIfDue() {
+        long now = System.currentTimeMillis();
+        long last = lastNotifyTime.get();
+        if (now - last >= NOTIFY_INTERVAL && lastNotifyTime.compareAndSet(last, now)) {
+            notifyListeners();
+        }
+    }
+
+    private void notifyListeners() {
+        ExtractionProgress progress = getProgress();
+        for (ExtractionProgressListener listener : listeners) {
+            try {
+                listener.progressChanged(progress);
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "Extraction progress listener problem: " + ex);
+            }
+        }
+    }
+}
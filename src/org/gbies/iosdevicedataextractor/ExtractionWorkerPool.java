@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of worker threads used to extract backup files in parallel.
+ * The number of tasks waiting for a worker is limited, so the thread
+ * submitting tasks is blocked instead of queuing the whole backup.
+ */
+public class ExtractionWorkerPool {
+
+    private static final int QUEUED_TASKS_PER_WORKER = 2;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    /**
+     * Main constructor.
+     *
+     * @param workerCount Number of worker threads.
+     */
+    public ExtractionWorkerPool(int workerCount) {
+        int workers = Math.max(1, workerCount);
+        this.executor = Executors.newFixedThreadPool(workers, new WorkerThreadFactory());
+        this.permits = new Semaphore(workers * QUEUED_TASKS_PER_WORKER);
+    }
+
+    /**
+     * Submits task to the pool, waits if too many tasks are already waiting.
+     *
+     * @param task Task to be executed by one of the workers.
+     * @throws InterruptedException
+     */
+    public void submit(final Runnable task) throws InterruptedException {
+        permits.acquire();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Submits task returning result to the pool, waits if too many tasks are
+     * already waiting.
+     *
+     * @param task Task to be executed by one of the workers.
+     * @return Future result of the task.
+     * @throws InterruptedException
+     */
+    public <T> Future<T> submit(final Callable<T> task) throws InterruptedException {
+        permits.acquire();
+        try {
+            return executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return task.call();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Waits until all submitted tasks are completed and stops the workers.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitCompletion() throws InterruptedException {
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+        }
+    }
+
+    /**
+     * @return Default number of workers, one per available processor.
+     */
+    public static int getDefaultWorkerCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "iOSDataExtractor-worker-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
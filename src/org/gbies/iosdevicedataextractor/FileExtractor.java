@@ -20,27 +20,47 @@
  */
 package org.gbies.iosdevicedataextractor;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.zip.ZipOutputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.gbies.iosbackupextractor.BackupFile;
 import org.gbies.iosbackupextractor.BackupReadException;
 import org.gbies.iosbackupextractor.NotUnlockedException;
 import org.gbies.iosbackupextractor.UnsupportedCryptoException;
 
 /**
- * Extracts file from iOS Backup.
+ * Extracts file from iOS Backup. Content is copied through large buffer
+ * reused by the thread, so the workers don't allocate buffers per file and
+ * the decrypted data is read in bulk instead of small chunks.
  *
  */
 public class FileExtractor {
 
     private final BackupFile backupFile;
-    private final int BUFFER_SIZE = 8192;
-    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final boolean encrypted;
+    private final ExtractionProgressTracker progress;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private final long TRANSFER_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+    private Map<String, String> digestValues;
 
     /**
      * Main constructor.
@@ -48,7 +68,28 @@ public class FileExtractor {
      * @param backupFile BackupFile to be extracted.
      */
     public FileExtractor(BackupFile backupFile) {
+        this(backupFile, true);
+    }
+
+    /**
+     * @param backupFile BackupFile to be extracted.
+     * @param encrypted True if the backup is encrypted, false if content files
+     * of the backup are plaintext.
+     */
+    public FileExtractor(BackupFile backupFile, boolean encrypted) {
+        this(backupFile, encrypted, null);
+    }
+
+    /**
+     * @param backupFile BackupFile to be extracted.
+     * @param encrypted True if the backup is encrypted, false if content files
+     * of the backup are plaintext.
+     * @param progress Tracker counting extracted bytes, may be null.
+     */
+    public FileExtractor(BackupFile backupFile, boolean encrypted, ExtractionProgressTracker progress) {
         this.backupFile = backupFile;
+        this.encrypted = encrypted;
+        this.progress = progress;
     }
 
     /**
@@ -60,20 +101,103 @@ public class FileExtractor {
      */
     public void extractToFile(File destinationFile) throws FileNotFoundException, BackupReadException, NotUnlockedException, UnsupportedCryptoException, IOException {
 
-        try (FileOutputStream fileOutputStream = new FileOutputStream(destinationFile);
-                BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(fileOutputStream)) {
+        if (!encrypted && (digests.isEmpty() || digestValues != null) && backupFile.getContentFile().isPresent()) {
+            transferToFile(backupFile.getContentFile().get(), destinationFile);
+            return;
+        }
+
+        try (FileChannel target = FileChannel.open(destinationFile.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                InputStream inputStream = openContent()) {
 
-            BufferedInputStream bufferedInputStream = backupFile.getFileStream();
-            bufferedOutputStream.flush();
-            fileOutputStream.getChannel().truncate(backupFile.getSize());
-            long realFileSize = (backupFile.getContentFile().get().length() > backupFile.getSize()) ? backupFile.getContentFile().get().length() : backupFile.getSize();
-            fileOutputStream.getChannel().truncate(realFileSize);
-            long padding = realFileSize - fileOutputStream.getChannel().size();
+            long padding = getExtractedLength();
+            byte[] buffer = BUFFERS.get();
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
 
             int bytesRead;
-            while (padding > 0 && (bytesRead = bufferedInputStream.read(buffer, 0, (int) Math.min(buffer.length, padding))) != -1) {
-                bufferedOutputStream.write(buffer, 0, bytesRead);
+            while (padding > 0 && (bytesRead = readFully(inputStream, buffer, (int) Math.min(buffer.length, padding))) > 0) {
+                checkCancelled();
+                byteBuffer.clear().limit(bytesRead);
+                while (byteBuffer.hasRemaining()) {
+                    target.write(byteBuffer);
+                }
+                updateDigest(buffer, bytesRead);
                 padding -= bytesRead;
+                addProgress(bytesRead);
+            }
+        }
+    }
+
+    /**
+     * Opens content of the file. Plaintext content file of unencrypted backup
+     * is read from FileChannel, encrypted content is decrypted by the backup
+     * library. The stream returned by the library is buffered, reads of the
+     * whole buffer size bypass its internal buffer, so the data is not copied
+     * twice.
+     *
+     * @return Stream of the file content.
+     * @throws BackupReadException, NotUnlockedException,
+     * UnsupportedCryptoException, IOException
+     */
+    private InputStream openContent() throws BackupReadException, NotUnlockedException, UnsupportedCryptoException, IOException {
+        if (!encrypted && backupFile.getContentFile().isPresent()) {
+            return Channels.newInputStream(FileChannel.open(backupFile.getContentFile().get().toPath(), StandardOpenOption.READ));
+        }
+        return backupFile.getFileStream();
+    }
+
+    /**
+     * Reads from the stream until the length is read or the end of the stream
+     * is reached.
+     *
+     * @return Number of bytes read, 0 at the end of the stream.
+     */
+    private static int readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+        int count = 0;
+        int bytesRead;
+        while (count < length && (bytesRead = inputStream.read(buffer, count, length - count)) != -1) {
+            count += bytesRead;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the maximum length of the extracted content. All extraction paths
+     * read the content up to this length, so the output and its digests
+     * don't depend on the path: the whole content, but not more than the
+     * larger of the content file length and the size of the BackupFile.
+     *
+     * @return Maximum number of bytes extracted.
+     */
+    private long getExtractedLength() {
+        long contentLength = backupFile.getContentFile().isPresent() ? backupFile.getContentFile().get().length() : 0;
+        return Math.max(contentLength, backupFile.getSize());
+    }
+
+    /**
+     * Copies plaintext content file of unencrypted backup to target file with
+     * FileChannel transfer, so the copy is done by the operating system
+     * without buffers on the heap.
+     *
+     * @param contentFile Content file from the backup directory.
+     * @param destinationFile The file to which the data is to be extracted.
+     * @throws IOException
+     */
+    private void transferToFile(File contentFile, File destinationFile) throws IOException {
+        try (FileChannel source = FileChannel.open(contentFile.toPath(), StandardOpenOption.READ);
+                FileChannel target = FileChannel.open(destinationFile.toPath(), StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            long size = Math.min(source.size(), getExtractedLength());
+            long position = 0;
+            while (position < size) {
+                checkCancelled();
+                long transferred = source.transferTo(position, Math.min(size - position, TRANSFER_CHUNK_SIZE), target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                addProgress(transferred);
             }
         }
     }
@@ -81,18 +205,122 @@ public class FileExtractor {
     /**
      * Add file form backup to zip archive.
      *
-     * @param zipOutputStream Stream to which data is to be added.
+     * @param zipOutputStream Stream of the archive entry to which data is to be
+     * added.
      * @throws FileNotFoundException, BackupReadException, NotUnlockedException,
      * UnsupportedCryptoException, IOException
      */
-    public void addToArchive(ZipOutputStream zipOutputStream) throws BackupReadException, NotUnlockedException, UnsupportedCryptoException, FileNotFoundException, IOException {
-        try (BufferedInputStream bufferedInputStream = new BufferedInputStream(backupFile.getFileStream())) {
+    public void addToArchive(OutputStream zipOutputStream) throws BackupReadException, NotUnlockedException, UnsupportedCryptoException, FileNotFoundException, IOException {
+        try (InputStream inputStream = openContent()) {
+            long remaining = getExtractedLength();
+            byte[] buffer = BUFFERS.get();
             int readData;
 
-            while ((readData = bufferedInputStream.read(buffer)) > 0) {
+            while (remaining > 0 && (readData = readFully(inputStream, buffer, (int) Math.min(buffer.length, remaining))) > 0) {
+                checkCancelled();
                 zipOutputStream.write(buffer, 0, readData);
+                updateDigest(buffer, readData);
+                remaining -= readData;
+                addProgress(readData);
             }
         }
     }
 
+    /**
+     * Reads the content only to compute the digests, nothing is written. The
+     * digests are kept, so the content is not hashed again when it is
+     * extracted later.
+     *
+     * @return Number of bytes of the content.
+     * @throws BackupReadException, NotUnlockedException,
+     * UnsupportedCryptoException, IOException
+     */
+    public long computeDigests() throws BackupReadException, NotUnlockedException, UnsupportedCryptoException, IOException {
+        long size = 0;
+        long length = getExtractedLength();
+        try (InputStream inputStream = openContent()) {
+            byte[] buffer = BUFFERS.get();
+            int bytesRead;
+            while (size < length && (bytesRead = readFully(inputStream, buffer, (int) Math.min(buffer.length, length - size))) > 0) {
+                checkCancelled();
+                updateDigest(buffer, bytesRead);
+                size += bytesRead;
+            }
+        }
+        getDigests();
+        return size;
+    }
+
+    /**
+     * Computes digest of the extracted content while it is written. Content
+     * of unencrypted backup is then copied through the buffer instead of the
+     * FileChannel transfer. More algorithms can be added, the content is
+     * read once for all of them.
+     *
+     * @param algorithm Digest algorithm, e.g. SHA-256.
+     * @throws NoSuchAlgorithmException
+     */
+    public void addDigestAlgorithm(String algorithm) throws NoSuchAlgorithmException {
+        if (!digests.containsKey(algorithm)) {
+            digests.put(algorithm, MessageDigest.getInstance(algorithm));
+        }
+    }
+
+    /**
+     * @param algorithm Digest algorithm.
+     * @return Hex digest of the extracted content or null if the algorithm
+     * has not been added.
+     */
+    public String getDigest(String algorithm) {
+        return getDigests().get(algorithm);
+    }
+
+    /**
+     * @return Hex digests of the extracted content by algorithm.
+     */
+    public Map<String, String> getDigests() {
+        if (digestValues == null) {
+            Map<String, String> values = new LinkedHashMap<>();
+            for (Map.Entry<String, MessageDigest> digest : digests.entrySet()) {
+                values.put(digest.getKey(), toHex(digest.getValue().digest()));
+            }
+            digestValues = Collections.unmodifiableMap(values);
+        }
+        return digestValues;
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private void updateDigest(byte[] buffer, int length) {
+        if (digestValues != null) {
+            return;
+        }
+        for (MessageDigest digest : digests.values()) {
+            digest.update(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Stops copying of the file when the extraction is cancelled.
+     *
+     * @throws InterruptedIOException
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        if (progress != null && progress.isCancelled()) {
+            throw new InterruptedIOException("Extraction of " + backupFile.relativePath + " cancelled");
+        }
+    }
+
+    private void addProgress(long bytes) {
+        if (progress != null) {
+            progress.addBytes(bytes);
+        }
+    }
+
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import org.gbies.iosbackupextractor.BackupFile;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+
+/**
+ * Fingerprint of the backup file used by incremental extraction to find files
+ * not changed since the previous extraction of the device. It is made of the
+ * size from Manifest.db, length and modification time of the content file and
+ * CRC of the first block of the content file. Encrypted content files get new
+ * file key when the file is changed, so the first block changes too.
+ */
+public class FileFingerprint {
+
+    private static final int SAMPLE_SIZE = 4096;
+
+    private FileFingerprint() {
+    }
+
+    /**
+     * @param backupFile BackupFile of the FILE type.
+     * @return Fingerprint or null if the content file can't be read.
+     */
+    public static String of(BackupFile backupFile) {
+        Optional<File> contentFile = backupFile.getContentFile();
+        if (contentFile == null || !contentFile.isPresent()) {
+            return null;
+        }
+
+        File file = contentFile.get();
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int count;
+            while (length < sample.length && (count = in.read(sample, length, sample.length - length)) > 0) {
+                length += count;
+            }
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "Can't read content file " + file.getName() + " :" + ex);
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(sample, 0, length);
+        return backupFile.getSize() + ":" + file.length() + ":" + file.lastModified() + ":" + Long.toHexString(crc.getValue());
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+import org.gbies.iosbackupextractor.BackupFile;
+
+/**
+ * CSV manifest with digests of the extracted files computed while the files
+ * are written, saved next to the extract directory. Every file is listed
+ * with its domain, relative path, fileID, size and the digests of the
+ * configured algorithms, so the extraction can be verified without reading
+ * the files again.
+ *
+ * Digests of files not extracted in this run (resumed or incremental
+ * extraction) are taken from the manifest of the earlier extraction, indexed
+ * in {@link SpillMap}.
+ *
+ * The manifest is written to temporary file renamed to the manifest file when
+ * it is closed, so the manifest of the resumed extraction is not lost until
+ * the new one is complete. Rows of the interrupted manifest are appended to
+ * the manifest file before the new one is written.
+ */
+public class HashManifest implements Closeable, Flushable {
+
+    public static final String FILE_EXTENSION = ".hashes.csv";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private final List<String> algorithms;
+    private final File manifestFile;
+    private final File tempFile;
+    private final SpillMap knownDigests;
+    private final FileOutputStream stream;
+    private final Writer writer;
+    private long missingDigests;
+    private boolean closed;
+
+    /**
+     * Creates manifest of the extract directory. Digests listed in the
+     * existing or interrupted manifest of the directory are kept for resumed
+     * extraction.
+     *
+     * @param extractDirectory The folder where the backup is extracted.
+     * @param algorithms Digest algorithms, e.g. MD5, SHA-256.
+     * @throws IOException, NoSuchAlgorithmException
+     */
+    public HashManifest(File extractDirectory, List<String> algorithms) throws IOException, NoSuchAlgorithmException {
+        for (String algorithm : algorithms) {
+            MessageDigest.getInstance(algorithm);
+        }
+        this.algorithms = Collections.unmodifiableList(new ArrayList<>(algorithms));
+        this.manifestFile = getManifestFile(extractDirectory);
+        this.tempFile = new File(manifestFile.getParentFile(), manifestFile.getName() + ".tmp");
+        this.knownDigests = new SpillMap(manifestFile.getParentFile());
+        if (manifestFile.exists()) {
+            read(manifestFile);
+        }
+        if (tempFile.exists()) {
+            read(tempFile);
+            keepInterruptedRows();
+        }
+        this.stream = new FileOutputStream(tempFile);
+        this.writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        writer.write(getHeader());
+    }
+
+    /**
+     * Reads digests of the previous extraction, used for files linked from
+     * it.
+     *
+     * @param previousExtractDirectory Extract directory of the previous
+     * extraction.
+     */
+    public void readPrevious(File previousExtractDirectory) {
+        File previousManifest = getManifestFile(previousExtractDirectory);
+        if (!previousManifest.exists()) {
+            return;
+        }
+        try {
+            read(previousManifest);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can't read hash manifest " + previousManifest.getAbsolutePath() + " :" + ex);
+        }
+    }
+
+    public List<String> getAlgorithms() {
+        return algorithms;
+    }
+
+    /**
+     * Lists the file with digests computed while it was written.
+     *
+     * @param backupFile Extracted BackupFile.
+     * @param size Size of the extracted content.
+     * @param digests Hex digests by algorithm.
+     * @throws IOException
+     */
+    public void record(BackupFile backupFile, long size, Map<String, String> digests) throws IOException {
+        StringBuilder values = new StringBuilder();
+        for (String algorithm : algorithms) {
+            String digest = digests.get(algorithm);
+            values.append(',').append(digest != null ? digest : "");
+        }
+        write(backupFile, size, values.toString());
+    }
+
+    /**
+     * Lists the file not extracted in this run with digests of the earlier
+     * extraction. Digests of unknown file are left empty.
+     *
+     * @param backupFile BackupFile extracted by the earlier extraction.
+     * @param size Size of the extracted content.
+     * @throws IOException
+     */
+    public void recordKnown(BackupFile backupFile, long size) throws IOException {
+        String values = getKnownDigests(backupFile, size);
+        if (values == null) {
+            values = new String(new char[algorithms.size()]).replace('\0', ',');
+            synchronized (this) {
+                missingDigests++;
+            }
+        }
+        write(backupFile, size, values);
+    }
+
+    /**
+     * Lists the file not extracted in this run with digests of the earlier
+     * extraction, the digests of unknown file are computed from the file on
+     * the disk.
+     *
+     * @param backupFile BackupFile extracted by the earlier extraction.
+     * @param file Extracted file.
+     * @throws IOException, NoSuchAlgorithmException
+     */
+    public void recordFile(BackupFile backupFile, File file) throws IOException, NoSuchAlgorithmException {
+        String values = getKnownDigests(backupFile, file.length());
+        if (values != null) {
+            write(backupFile, file.length(), values);
+            return;
+        }
+
+        List<MessageDigest> digests = new ArrayList<>(algorithms.size());
+        for (String algorithm : algorithms) {
+            digests.add(MessageDigest.getInstance(algorithm));
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                for (MessageDigest digest : digests) {
+                    digest.update(buffer, 0, bytesRead);
+                }
+                size += bytesRead;
+            }
+        }
+        StringBuilder computedValues = new StringBuilder();
+        for (MessageDigest digest : digests) {
+            computedValues.append(',').append(FileExtractor.toHex(digest.digest()));
+        }
+        write(backupFile, size, computedValues.toString());
+    }
+
+    /**
+     * Writes buffered rows and forces them to the disk, called when the
+     * extraction journal is forced to the disk, so every file recorded in the
+     * journal is listed in the manifest.
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        writer.flush();
+        stream.getChannel().force(false);
+    }
+
+    /**
+     * Closes the manifest and replaces the manifest file with it.
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        knownDigests.close();
+        try {
+            writer.flush();
+            stream.getChannel().force(false);
+        } finally {
+            writer.close();
+        }
+        Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (missingDigests > 0) {
+            logger.log(Level.WARNING, missingDigests + " files without digests listed in " + manifestFile.getName());
+        }
+    }
+
+    /**
+     * @param extractDirectory The folder where the backup is extracted.
+     * @return Manifest file of the extract directory.
+     */
+    public static File getManifestFile(File extractDirectory) {
+        File directory = extractDirectory.getAbsoluteFile();
+        return new File(directory.getParentFile(), directory.getName() + FILE_EXTENSION);
+    }
+
+    private synchronized void write(BackupFile backupFile, long size, String values) throws IOException {
+        writer.write(quote(backupFile.domain) + "," + quote(backupFile.relativePath) + "," + backupFile.fileID + "," + size + values + "\n");
+    }
+
+    private synchronized String getKnownDigests(BackupFile backupFile, long size) {
+        String values = knownDigests.get(backupFile.fileID + "," + size);
+        return values != null && !values.matches(",*") ? values : null;
+    }
+
+    private String getHeader() {
+        StringBuilder header = new StringBuilder("domain,relativePath,fileID,size");
+        for (String algorithm : algorithms) {
+            header.append(',').append(algorithm);
+        }
+        return header.append('\n').toString();
+    }
+
+    /**
+     * Appends rows of the interrupted manifest to the manifest file, or
+     * renames it to the manifest file, so the rows are not lost when this
+     * extraction is interrupted too. Torn last row is skipped.
+     */
+    private void keepInterruptedRows() throws IOException {
+        if (!manifestFile.exists()) {
+            Files.move(tempFile.toPath(), manifestFile.toPath());
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(tempFile), StandardCharsets.UTF_8));
+                FileOutputStream manifestStream = new FileOutputStream(manifestFile, true)) {
+            Writer manifestWriter = new BufferedWriter(new OutputStreamWriter(manifestStream, StandardCharsets.UTF_8));
+            String line = reader.readLine();
+            if (line != null && (line + "\n").equals(getHeader())) {
+                boolean terminated = isTerminated(tempFile);
+                String next = reader.readLine();
+                while ((line = next) != null) {
+                    next = reader.readLine();
+                    if (next == null && !terminated) {
+                        break;
+                    }
+                    manifestWriter.write(line + "\n");
+                }
+            }
+            manifestWriter.flush();
+            manifestStream.getChannel().force(false);
+        }
+        Files.delete(tempFile.toPath());
+    }
+
+    private static boolean isTerminated(File file) throws IOException {
+        if (file.length() == 0) {
+            return true;
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            randomAccessFile.seek(randomAccessFile.length() - 1);
+            return randomAccessFile.read() == '\n';
+        }
+    }
+
+    /**
+     * Reads digests of the manifest with the same algorithms. Values are read
+     * from the end of the line, so quoted paths don't need to be parsed. Torn
+     * last line of the interrupted manifest is skipped.
+     */
+    private synchronized void read(File file) throws IOException {
+        boolean terminated = isTerminated(file);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            if (line == null || !(line + "\n").equals(getHeader())) {
+                return;
+            }
+            String next = reader.readLine();
+            while ((line = next) != null) {
+                next = reader.readLine();
+                if (next == null && !terminated) {
+                    break;
+                }
+                int start = line.length();
+                for (int i = 0; i < algorithms.size() + 2 && start > 0; i++) {
+                    start = line.lastIndexOf(',', start - 1);
+                }
+                if (start < 0) {
+                    continue;
+                }
+                String fileIDAndSize = line.substring(start + 1);
+                int valuesStart = fileIDAndSize.indexOf(',', fileIDAndSize.indexOf(',') + 1);
+                if (valuesStart < 0 && !algorithms.isEmpty()) {
+                    continue;
+                }
+                if (valuesStart < 0) {
+                    valuesStart = fileIDAndSize.length();
+                }
+                knownDigests.put(fileIDAndSize.substring(0, valuesStart), fileIDAndSize.substring(valuesStart));
+            }
+        }
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
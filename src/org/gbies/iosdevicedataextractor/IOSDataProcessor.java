@@ -25,6 +25,7 @@ import org.sleuthkit.autopsy.corecomponentinterfaces.DataSourceProcessor;
 import org.sleuthkit.autopsy.corecomponentinterfaces.DataSourceProcessorCallback;
 import org.sleuthkit.autopsy.corecomponentinterfaces.DataSourceProcessorProgressMonitor;
 import org.openide.util.lookup.ServiceProvider;
+import org.sleuthkit.autopsy.ingest.IngestJobSettings;
 import org.sleuthkit.datamodel.Host;
 
 @ServiceProvider(service = DataSourceProcessor.class)
@@ -32,6 +33,7 @@ public class IOSDataProcessor implements DataSourceProcessor {
 
     private final String modulename = "Extraction data from iOS device or iTunes backup";
     private final IOSDataProcessorPanel processorPanel;
+    private volatile addDeviceDataTask currentTask;
 
     public IOSDataProcessor() {
         processorPanel = new IOSDataProcessorPanel();
@@ -54,17 +56,38 @@ public class IOSDataProcessor implements DataSourceProcessor {
 
     @Override
     public void run(DataSourceProcessorProgressMonitor progressMonitor, DataSourceProcessorCallback callback) {
-        new Thread(new addDeviceDataTask(processorPanel.getPanelSettings(), progressMonitor, callback)).start();
+        currentTask = new addDeviceDataTask(processorPanel.getPanelSettings(), progressMonitor, callback);
+        new Thread(currentTask).start();
     }
 
     @Override
     public void run(Host host, DataSourceProcessorProgressMonitor progressMonitor, DataSourceProcessorCallback callback) {
-        new Thread(new addDeviceDataTask(host, processorPanel.getPanelSettings(), progressMonitor, callback)).start();
+        currentTask = new addDeviceDataTask(host, processorPanel.getPanelSettings(), progressMonitor, callback);
+        new Thread(currentTask).start();
     }
 
     @Override
-    public void cancel() {
+    public boolean supportsIngestStream() {
+        return true;
+    }
+
+    @Override
+    public void runWithIngestStream(IngestJobSettings settings, DataSourceProcessorProgressMonitor progressMonitor, DataSourceProcessorCallback callback) {
+        runWithIngestStream(null, settings, progressMonitor, callback);
+    }
 
+    @Override
+    public void runWithIngestStream(Host host, IngestJobSettings settings, DataSourceProcessorProgressMonitor progressMonitor, DataSourceProcessorCallback callback) {
+        currentTask = new addDeviceDataTask(host, settings, processorPanel.getPanelSettings(), progressMonitor, callback);
+        new Thread(currentTask).start();
+    }
+
+    @Override
+    public void cancel() {
+        addDeviceDataTask task = currentTask;
+        if (task != null) {
+            task.cancel();
+        }
     }
 
     @Override
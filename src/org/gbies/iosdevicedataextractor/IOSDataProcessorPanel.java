@@ -21,8 +21,13 @@
 package org.gbies.iosdevicedataextractor;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import javax.swing.JFileChooser;
+import org.gbies.iosbackupextractor.BackupFile;
 import org.openide.util.NbBundle.Messages;
 import org.sleuthkit.autopsy.casemodule.Case;
 import org.sleuthkit.autopsy.coreutils.MessageNotifyUtil;
@@ -54,6 +59,7 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
         jTextFieldDefaultFolderExtraction.setVisible(false);
         jTextFieldBackupFolder.setEditable(false);
         jButtonFolderExtraction.setVisible(false);
+        setOptions(new IOSDataProcessorPanelSettings());
         panelValid = true;
     }
 
@@ -79,7 +85,43 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
         jLabelPassword = new javax.swing.JLabel();
         jPasswordField = new javax.swing.JPasswordField();
         jLabelDirectory = new javax.swing.JLabel();
+        jLabelPasswordCandidates = new javax.swing.JLabel();
+        jScrollPanePasswordCandidates = new javax.swing.JScrollPane();
+        jTextAreaPasswordCandidates = new javax.swing.JTextArea();
         jCheckBoxExtractToZip = new javax.swing.JCheckBox();
+        jPanelOptions = new javax.swing.JPanel();
+        jLabelWorkers = new javax.swing.JLabel();
+        jSpinnerWorkers = new javax.swing.JSpinner();
+        jLabelCompression = new javax.swing.JLabel();
+        jComboBoxCompressionPolicy = new javax.swing.JComboBox<>();
+        jLabelCompressionLevel = new javax.swing.JLabel();
+        jSpinnerCompressionLevel = new javax.swing.JSpinner();
+        jLabelFolderOrder = new javax.swing.JLabel();
+        jComboBoxFolderOrder = new javax.swing.JComboBox<>();
+        jLabelZipOrder = new javax.swing.JLabel();
+        jComboBoxZipOrder = new javax.swing.JComboBox<>();
+        jCheckBoxResume = new javax.swing.JCheckBox();
+        jCheckBoxIncremental = new javax.swing.JCheckBox();
+        jCheckBoxDeduplication = new javax.swing.JCheckBox();
+        jCheckBoxDeletePartialOutput = new javax.swing.JCheckBox();
+        jLabelHashAlgorithms = new javax.swing.JLabel();
+        jTextFieldHashAlgorithms = new javax.swing.JTextField();
+        jLabelDomainIncludes = new javax.swing.JLabel();
+        jTextFieldDomainIncludes = new javax.swing.JTextField();
+        jLabelDomainExcludes = new javax.swing.JLabel();
+        jTextFieldDomainExcludes = new javax.swing.JTextField();
+        jLabelPathIncludes = new javax.swing.JLabel();
+        jTextFieldPathIncludes = new javax.swing.JTextField();
+        jLabelPathExcludes = new javax.swing.JLabel();
+        jTextFieldPathExcludes = new javax.swing.JTextField();
+        jLabelFileTypes = new javax.swing.JLabel();
+        jCheckBoxFiles = new javax.swing.JCheckBox();
+        jCheckBoxDirectories = new javax.swing.JCheckBox();
+        jCheckBoxSymbolicLinks = new javax.swing.JCheckBox();
+        jLabelMinSize = new javax.swing.JLabel();
+        jTextFieldMinSize = new javax.swing.JTextField();
+        jLabelMaxSize = new javax.swing.JLabel();
+        jTextFieldMaxSize = new javax.swing.JTextField();
 
         jPanelLiveExtraction.setBorder(javax.swing.BorderFactory.createLineBorder(new java.awt.Color(0, 0, 0)));
 
@@ -168,6 +210,12 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
 
         org.openide.awt.Mnemonics.setLocalizedText(jLabelDirectory, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelDirectory.text")); // NOI18N
 
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelPasswordCandidates, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelPasswordCandidates.text")); // NOI18N
+
+        jTextAreaPasswordCandidates.setColumns(20);
+        jTextAreaPasswordCandidates.setRows(3);
+        jScrollPanePasswordCandidates.setViewportView(jTextAreaPasswordCandidates);
+
         javax.swing.GroupLayout jPanelBackupExtractionLayout = new javax.swing.GroupLayout(jPanelBackupExtraction);
         jPanelBackupExtraction.setLayout(jPanelBackupExtractionLayout);
         jPanelBackupExtractionLayout.setHorizontalGroup(
@@ -188,7 +236,12 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                         .addComponent(jTextFieldBackupFolder, javax.swing.GroupLayout.PREFERRED_SIZE, 328, javax.swing.GroupLayout.PREFERRED_SIZE)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
-                        .addComponent(jButtonBackupFolder, javax.swing.GroupLayout.PREFERRED_SIZE, 72, javax.swing.GroupLayout.PREFERRED_SIZE))))
+                        .addComponent(jButtonBackupFolder, javax.swing.GroupLayout.PREFERRED_SIZE, 72, javax.swing.GroupLayout.PREFERRED_SIZE))
+                    .addGroup(jPanelBackupExtractionLayout.createSequentialGroup()
+                        .addGap(8, 8, 8)
+                        .addComponent(jLabelPasswordCandidates)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jScrollPanePasswordCandidates, javax.swing.GroupLayout.PREFERRED_SIZE, 328, javax.swing.GroupLayout.PREFERRED_SIZE))))
         );
         jPanelBackupExtractionLayout.setVerticalGroup(
             jPanelBackupExtractionLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
@@ -203,11 +256,210 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
                     .addComponent(jTextFieldBackupFolder, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                     .addComponent(jButtonBackupFolder)
                     .addComponent(jLabelDirectory))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanelBackupExtractionLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(jLabelPasswordCandidates)
+                    .addComponent(jScrollPanePasswordCandidates, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
 
         org.openide.awt.Mnemonics.setLocalizedText(jCheckBoxExtractToZip, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jCheckBoxExtractToZip.text")); // NOI18N
 
+        jPanelOptions.setBorder(javax.swing.BorderFactory.createLineBorder(new java.awt.Color(0, 0, 0)));
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelWorkers, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelWorkers.text")); // NOI18N
+
+        jSpinnerWorkers.setModel(new javax.swing.SpinnerNumberModel(1, 1, 256, 1));
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelCompression, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelCompression.text")); // NOI18N
+
+        jComboBoxCompressionPolicy.setModel(new javax.swing.DefaultComboBoxModel<>(CompressionPolicy.values()));
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelCompressionLevel, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelCompressionLevel.text")); // NOI18N
+
+        jSpinnerCompressionLevel.setModel(new javax.swing.SpinnerNumberModel(-1, -1, 9, 1));
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelFolderOrder, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelFolderOrder.text")); // NOI18N
+
+        jComboBoxFolderOrder.setModel(new javax.swing.DefaultComboBoxModel<>(ExtractionOrder.values()));
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelZipOrder, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelZipOrder.text")); // NOI18N
+
+        jComboBoxZipOrder.setModel(new javax.swing.DefaultComboBoxModel<>(ExtractionOrder.values()));
+
+        org.openide.awt.Mnemonics.setLocalizedText(jCheckBoxResume, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jCheckBoxResume.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jCheckBoxIncremental, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jCheckBoxIncremental.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jCheckBoxDeduplication, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jCheckBoxDeduplication.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jCheckBoxDeletePartialOutput, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jCheckBoxDeletePartialOutput.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelHashAlgorithms, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelHashAlgorithms.text")); // NOI18N
+
+        jTextFieldHashAlgorithms.setText(org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jTextFieldHashAlgorithms.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelDomainIncludes, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelDomainIncludes.text")); // NOI18N
+
+        jTextFieldDomainIncludes.setText(org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jTextFieldDomainIncludes.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelDomainExcludes, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelDomainExcludes.text")); // NOI18N
+
+        jTextFieldDomainExcludes.setText(org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jTextFieldDomainExcludes.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelPathIncludes, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelPathIncludes.text")); // NOI18N
+
+        jTextFieldPathIncludes.setText(org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jTextFieldPathIncludes.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelPathExcludes, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelPathExcludes.text")); // NOI18N
+
+        jTextFieldPathExcludes.setText(org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jTextFieldPathExcludes.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelFileTypes, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelFileTypes.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jCheckBoxFiles, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jCheckBoxFiles.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jCheckBoxDirectories, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jCheckBoxDirectories.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jCheckBoxSymbolicLinks, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jCheckBoxSymbolicLinks.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelMinSize, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelMinSize.text")); // NOI18N
+
+        jTextFieldMinSize.setText(org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jTextFieldMinSize.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(jLabelMaxSize, org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jLabelMaxSize.text")); // NOI18N
+
+        jTextFieldMaxSize.setText(org.openide.util.NbBundle.getMessage(IOSDataProcessorPanel.class, "IOSDataProcessorPanel.jTextFieldMaxSize.text")); // NOI18N
+
+        javax.swing.GroupLayout jPanelOptionsLayout = new javax.swing.GroupLayout(jPanelOptions);
+        jPanelOptions.setLayout(jPanelOptionsLayout);
+        jPanelOptionsLayout.setHorizontalGroup(
+            jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(jPanelOptionsLayout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addGroup(jPanelOptionsLayout.createSequentialGroup()
+                        .addComponent(jLabelWorkers)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jSpinnerWorkers, javax.swing.GroupLayout.PREFERRED_SIZE, 50, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                        .addComponent(jLabelCompression)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jComboBoxCompressionPolicy)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jLabelCompressionLevel)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jSpinnerCompressionLevel, javax.swing.GroupLayout.PREFERRED_SIZE, 45, javax.swing.GroupLayout.PREFERRED_SIZE))
+                    .addGroup(jPanelOptionsLayout.createSequentialGroup()
+                        .addComponent(jLabelFolderOrder)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jComboBoxFolderOrder)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                        .addComponent(jLabelZipOrder)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jComboBoxZipOrder))
+                    .addGroup(jPanelOptionsLayout.createSequentialGroup()
+                        .addComponent(jCheckBoxResume)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jCheckBoxIncremental))
+                    .addGroup(jPanelOptionsLayout.createSequentialGroup()
+                        .addComponent(jCheckBoxDeduplication)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jCheckBoxDeletePartialOutput))
+                    .addGroup(jPanelOptionsLayout.createSequentialGroup()
+                        .addComponent(jLabelHashAlgorithms)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jTextFieldHashAlgorithms, javax.swing.GroupLayout.PREFERRED_SIZE, 200, javax.swing.GroupLayout.PREFERRED_SIZE))
+                    .addGroup(jPanelOptionsLayout.createSequentialGroup()
+                        .addComponent(jLabelDomainIncludes)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jTextFieldDomainIncludes, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jLabelDomainExcludes)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jTextFieldDomainExcludes, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE))
+                    .addGroup(jPanelOptionsLayout.createSequentialGroup()
+                        .addComponent(jLabelPathIncludes)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jTextFieldPathIncludes, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jLabelPathExcludes)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jTextFieldPathExcludes, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE))
+                    .addGroup(jPanelOptionsLayout.createSequentialGroup()
+                        .addComponent(jLabelFileTypes)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jCheckBoxFiles)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jCheckBoxDirectories)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jCheckBoxSymbolicLinks))
+                    .addGroup(jPanelOptionsLayout.createSequentialGroup()
+                        .addComponent(jLabelMinSize)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jTextFieldMinSize, javax.swing.GroupLayout.PREFERRED_SIZE, 80, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jLabelMaxSize)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jTextFieldMaxSize, javax.swing.GroupLayout.PREFERRED_SIZE, 80, javax.swing.GroupLayout.PREFERRED_SIZE)))
+                .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+        );
+        jPanelOptionsLayout.setVerticalGroup(
+            jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(jPanelOptionsLayout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabelWorkers)
+                    .addComponent(jSpinnerWorkers, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(jLabelCompression)
+                    .addComponent(jComboBoxCompressionPolicy, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(jLabelCompressionLevel)
+                    .addComponent(jSpinnerCompressionLevel, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabelFolderOrder)
+                    .addComponent(jComboBoxFolderOrder, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(jLabelZipOrder)
+                    .addComponent(jComboBoxZipOrder, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jCheckBoxResume)
+                    .addComponent(jCheckBoxIncremental))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jCheckBoxDeduplication)
+                    .addComponent(jCheckBoxDeletePartialOutput))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabelHashAlgorithms)
+                    .addComponent(jTextFieldHashAlgorithms, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabelDomainIncludes)
+                    .addComponent(jTextFieldDomainIncludes, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(jLabelDomainExcludes)
+                    .addComponent(jTextFieldDomainExcludes, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabelPathIncludes)
+                    .addComponent(jTextFieldPathIncludes, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(jLabelPathExcludes)
+                    .addComponent(jTextFieldPathExcludes, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabelFileTypes)
+                    .addComponent(jCheckBoxFiles)
+                    .addComponent(jCheckBoxDirectories)
+                    .addComponent(jCheckBoxSymbolicLinks))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanelOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabelMinSize)
+                    .addComponent(jTextFieldMinSize, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(jLabelMaxSize)
+                    .addComponent(jTextFieldMaxSize, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+        );
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
         layout.setHorizontalGroup(
@@ -217,7 +469,8 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING, false)
                     .addComponent(jCheckBoxExtractToZip)
                     .addComponent(jPanelLiveExtraction, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
-                    .addComponent(jPanelBackupExtraction, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+                    .addComponent(jPanelBackupExtraction, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(jPanelOptions, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
                 .addContainerGap(7, Short.MAX_VALUE))
         );
         layout.setVerticalGroup(
@@ -229,6 +482,8 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
                 .addComponent(jPanelBackupExtraction, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(jCheckBoxExtractToZip)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(jPanelOptions, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addContainerGap())
         );
     }// </editor-fold>//GEN-END:initComponents
@@ -290,6 +545,8 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
             jButtonBackupFolder.setEnabled(false);
             jPasswordField.setEnabled(false);
             jLabelPassword.setEnabled(false);
+            jLabelPasswordCandidates.setEnabled(false);
+            jTextAreaPasswordCandidates.setEnabled(false);
             panelValid = true;
         } else {
             jRadioButtonLiveExtraction.setSelected(false);
@@ -304,6 +561,8 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
             jPanelBackupExtraction.setEnabled(true);
             jButtonBackupFolder.setEnabled(true);
             jLabelPassword.setEnabled(true);
+            jLabelPasswordCandidates.setEnabled(true);
+            jTextAreaPasswordCandidates.setEnabled(true);
             if ("".equals(jTextFieldBackupFolder.getText())) {
                 panelValid = false;
                 jPasswordField.setEnabled(false);
@@ -320,16 +579,52 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
     private javax.swing.JButton jButtonFolderExtraction;
     private javax.swing.JCheckBox jCheckBoxBackupEncrypted;
     private javax.swing.JCheckBox jCheckBoxChangeDefaultFolder;
+    private javax.swing.JCheckBox jCheckBoxDeduplication;
+    private javax.swing.JCheckBox jCheckBoxDeletePartialOutput;
+    private javax.swing.JCheckBox jCheckBoxDirectories;
     private javax.swing.JCheckBox jCheckBoxExtractToZip;
+    private javax.swing.JCheckBox jCheckBoxFiles;
+    private javax.swing.JCheckBox jCheckBoxIncremental;
+    private javax.swing.JCheckBox jCheckBoxResume;
+    private javax.swing.JCheckBox jCheckBoxSymbolicLinks;
+    private javax.swing.JComboBox<CompressionPolicy> jComboBoxCompressionPolicy;
+    private javax.swing.JComboBox<ExtractionOrder> jComboBoxFolderOrder;
+    private javax.swing.JComboBox<ExtractionOrder> jComboBoxZipOrder;
+    private javax.swing.JLabel jLabelCompression;
+    private javax.swing.JLabel jLabelCompressionLevel;
     private javax.swing.JLabel jLabelDirectory;
+    private javax.swing.JLabel jLabelDomainExcludes;
+    private javax.swing.JLabel jLabelDomainIncludes;
+    private javax.swing.JLabel jLabelFileTypes;
+    private javax.swing.JLabel jLabelFolderOrder;
+    private javax.swing.JLabel jLabelHashAlgorithms;
+    private javax.swing.JLabel jLabelMaxSize;
+    private javax.swing.JLabel jLabelMinSize;
     private javax.swing.JLabel jLabelPassword;
+    private javax.swing.JLabel jLabelPasswordCandidates;
+    private javax.swing.JLabel jLabelPathExcludes;
+    private javax.swing.JLabel jLabelPathIncludes;
+    private javax.swing.JLabel jLabelWorkers;
+    private javax.swing.JLabel jLabelZipOrder;
     private javax.swing.JPanel jPanelBackupExtraction;
     private javax.swing.JPanel jPanelLiveExtraction;
+    private javax.swing.JPanel jPanelOptions;
     private javax.swing.JPasswordField jPasswordField;
     private javax.swing.JRadioButton jRadioButtonBackupExtraction;
     private javax.swing.JRadioButton jRadioButtonLiveExtraction;
+    private javax.swing.JScrollPane jScrollPanePasswordCandidates;
+    private javax.swing.JSpinner jSpinnerCompressionLevel;
+    private javax.swing.JSpinner jSpinnerWorkers;
+    private javax.swing.JTextArea jTextAreaPasswordCandidates;
     private javax.swing.JTextField jTextFieldBackupFolder;
     private javax.swing.JTextField jTextFieldDefaultFolderExtraction;
+    private javax.swing.JTextField jTextFieldDomainExcludes;
+    private javax.swing.JTextField jTextFieldDomainIncludes;
+    private javax.swing.JTextField jTextFieldHashAlgorithms;
+    private javax.swing.JTextField jTextFieldMaxSize;
+    private javax.swing.JTextField jTextFieldMinSize;
+    private javax.swing.JTextField jTextFieldPathExcludes;
+    private javax.swing.JTextField jTextFieldPathIncludes;
     // End of variables declaration//GEN-END:variables
 
     public boolean validatePanel() {
@@ -340,6 +635,7 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
         setComponents(true);
         jTextFieldBackupFolder.setText("");
         jTextFieldDefaultFolderExtraction.setText(defaultFolderExtraction);
+        setOptions(new IOSDataProcessorPanelSettings());
     }
 
     public IOSDataProcessorPanelSettings getPanelSettings() {
@@ -353,9 +649,114 @@ public class IOSDataProcessorPanel extends javax.swing.JPanel {
         }
         panelSettings.setExtractToZip(jCheckBoxExtractToZip.isSelected());
         panelSettings.setBackupEncrypted(jCheckBoxBackupEncrypted.isSelected());
+        panelSettings.setPasswordCandidates(getLines(jTextAreaPasswordCandidates.getText()));
+        panelSettings.setWorkerCount((Integer) jSpinnerWorkers.getValue());
+        panelSettings.setCompressionPolicy((CompressionPolicy) jComboBoxCompressionPolicy.getSelectedItem());
+        panelSettings.setCompressionLevel((Integer) jSpinnerCompressionLevel.getValue());
+        panelSettings.setFolderExtractionOrder((ExtractionOrder) jComboBoxFolderOrder.getSelectedItem());
+        panelSettings.setZipExtractionOrder((ExtractionOrder) jComboBoxZipOrder.getSelectedItem());
+        panelSettings.setResumeExtraction(jCheckBoxResume.isSelected());
+        panelSettings.setIncrementalExtraction(jCheckBoxIncremental.isSelected());
+        panelSettings.setDeduplication(jCheckBoxDeduplication.isSelected());
+        panelSettings.setDeletePartialOutput(jCheckBoxDeletePartialOutput.isSelected());
+        panelSettings.setHashAlgorithms(getItems(jTextFieldHashAlgorithms.getText()));
+        panelSettings.setExtractionFilter(getExtractionFilter());
         return panelSettings;
     }
 
+    /**
+     * Shows the extraction options of the settings.
+     */
+    private void setOptions(IOSDataProcessorPanelSettings settings) {
+        jTextAreaPasswordCandidates.setText(String.join("\n", settings.getPasswordCandidates()));
+        jSpinnerWorkers.setValue(settings.getWorkerCount());
+        jComboBoxCompressionPolicy.setSelectedItem(settings.getCompressionPolicy());
+        jSpinnerCompressionLevel.setValue(settings.getCompressionLevel());
+        jComboBoxFolderOrder.setSelectedItem(settings.getFolderExtractionOrder());
+        jComboBoxZipOrder.setSelectedItem(settings.getZipExtractionOrder());
+        jCheckBoxResume.setSelected(settings.isResumeExtraction());
+        jCheckBoxIncremental.setSelected(settings.isIncrementalExtraction());
+        jCheckBoxDeduplication.setSelected(settings.isDeduplication());
+        jCheckBoxDeletePartialOutput.setSelected(settings.isDeletePartialOutput());
+        jTextFieldHashAlgorithms.setText(String.join(", ", settings.getHashAlgorithms()));
+        ExtractionFilter filter = settings.getExtractionFilter();
+        jTextFieldDomainIncludes.setText(String.join(", ", filter.getDomainIncludes()));
+        jTextFieldDomainExcludes.setText(String.join(", ", filter.getDomainExcludes()));
+        jTextFieldPathIncludes.setText(String.join(", ", filter.getPathIncludes()));
+        jTextFieldPathExcludes.setText(String.join(", ", filter.getPathExcludes()));
+        jCheckBoxFiles.setSelected(filter.getFileTypes().contains(BackupFile.FileType.FILE));
+        jCheckBoxDirectories.setSelected(filter.getFileTypes().contains(BackupFile.FileType.DIRECTORY));
+        jCheckBoxSymbolicLinks.setSelected(filter.getFileTypes().contains(BackupFile.FileType.SYMBOLIC_LINK));
+        jTextFieldMinSize.setText(filter.getMinSize() == ExtractionFilter.NO_LIMIT ? "" : Long.toString(filter.getMinSize()));
+        jTextFieldMaxSize.setText(filter.getMaxSize() == ExtractionFilter.NO_LIMIT ? "" : Long.toString(filter.getMaxSize()));
+    }
+
+    private ExtractionFilter getExtractionFilter() {
+        ExtractionFilter filter = new ExtractionFilter();
+        filter.setDomainIncludes(getItems(jTextFieldDomainIncludes.getText()));
+        filter.setDomainExcludes(getItems(jTextFieldDomainExcludes.getText()));
+        filter.setPathIncludes(getItems(jTextFieldPathIncludes.getText()));
+        filter.setPathExcludes(getItems(jTextFieldPathExcludes.getText()));
+        Set<BackupFile.FileType> fileTypes = EnumSet.noneOf(BackupFile.FileType.class);
+        if (jCheckBoxFiles.isSelected()) {
+            fileTypes.add(BackupFile.FileType.FILE);
+        }
+        if (jCheckBoxDirectories.isSelected()) {
+            fileTypes.add(BackupFile.FileType.DIRECTORY);
+        }
+        if (jCheckBoxSymbolicLinks.isSelected()) {
+            fileTypes.add(BackupFile.FileType.SYMBOLIC_LINK);
+        }
+        filter.setFileTypes(fileTypes);
+        filter.setMinSize(getSize(jTextFieldMinSize.getText()));
+        filter.setMaxSize(getSize(jTextFieldMaxSize.getText()));
+        return filter;
+    }
+
+    /**
+     * @return Size in bytes or NO_LIMIT if the text is empty or not a size.
+     */
+    private static long getSize(String text) {
+        if (text.trim().isEmpty()) {
+            return ExtractionFilter.NO_LIMIT;
+        }
+        try {
+            long size = Long.parseLong(text.trim());
+            if (size >= 0) {
+                return size;
+            }
+        } catch (NumberFormatException ex) {
+        }
+        logger.log(Level.WARNING, "Size limit " + text + " ignored, not a number of bytes");
+        return ExtractionFilter.NO_LIMIT;
+    }
+
+    /**
+     * @return Comma separated items of the text, without empty items.
+     */
+    private static List<String> getItems(String text) {
+        List<String> items = new ArrayList<>();
+        for (String item : text.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @return Lines of the text, without empty lines.
+     */
+    private static List<String> getLines(String text) {
+        List<String> lines = new ArrayList<>();
+        for (String line : text.split("\\r?\\n")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
     private void fireUpdateEvent() {
         try {
             firePropertyChange(IOSDataProcessor.DSP_PANEL_EVENT.UPDATE_UI.toString(), false, true);
@@ -21,6 +21,9 @@
 
 package org.gbies.iosdevicedataextractor;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
 
 public class IOSDataProcessorPanelSettings {
     private boolean liveExtraction;
@@ -28,6 +31,18 @@ public class IOSDataProcessorPanelSettings {
     private String password;
     private boolean extractToZip;
     private boolean backupEncrypted;
+    private int workerCount = ExtractionWorkerPool.getDefaultWorkerCount();
+    private CompressionPolicy compressionPolicy = CompressionPolicy.CONTENT_AWARE;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private ExtractionOrder folderExtractionOrder = ExtractionOrder.MANIFEST;
+    private ExtractionOrder zipExtractionOrder = ExtractionOrder.MANIFEST;
+    private boolean deletePartialOutput;
+    private boolean resumeExtraction;
+    private boolean incrementalExtraction;
+    private boolean deduplication;
+    private ExtractionFilter extractionFilter = new ExtractionFilter();
+    private List<String> passwordCandidates = new ArrayList<>();
+    private List<String> hashAlgorithms = new ArrayList<>();
 
     
     public boolean isExtractToZip() {
@@ -69,4 +84,100 @@ public class IOSDataProcessorPanelSettings {
     public void setBackupEncrypted(boolean backupEncrypted) {
         this.backupEncrypted = backupEncrypted;
     }        
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public ExtractionOrder getFolderExtractionOrder() {
+        return folderExtractionOrder;
+    }
+
+    public void setFolderExtractionOrder(ExtractionOrder folderExtractionOrder) {
+        this.folderExtractionOrder = folderExtractionOrder;
+    }
+
+    public ExtractionOrder getZipExtractionOrder() {
+        return zipExtractionOrder;
+    }
+
+    public void setZipExtractionOrder(ExtractionOrder zipExtractionOrder) {
+        this.zipExtractionOrder = zipExtractionOrder;
+    }
+
+    public boolean isDeletePartialOutput() {
+        return deletePartialOutput;
+    }
+
+    public void setDeletePartialOutput(boolean deletePartialOutput) {
+        this.deletePartialOutput = deletePartialOutput;
+    }
+
+    public boolean isResumeExtraction() {
+        return resumeExtraction;
+    }
+
+    public void setResumeExtraction(boolean resumeExtraction) {
+        this.resumeExtraction = resumeExtraction;
+    }
+
+    public boolean isIncrementalExtraction() {
+        return incrementalExtraction;
+    }
+
+    public void setIncrementalExtraction(boolean incrementalExtraction) {
+        this.incrementalExtraction = incrementalExtraction;
+    }
+
+    public boolean isDeduplication() {
+        return deduplication;
+    }
+
+    public void setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+    }
+
+    public ExtractionFilter getExtractionFilter() {
+        return extractionFilter;
+    }
+
+    public void setExtractionFilter(ExtractionFilter extractionFilter) {
+        this.extractionFilter = extractionFilter;
+    }
+
+    public List<String> getPasswordCandidates() {
+        return passwordCandidates;
+    }
+
+    public void setPasswordCandidates(List<String> passwordCandidates) {
+        this.passwordCandidates = passwordCandidates;
+    }
+
+    public List<String> getHashAlgorithms() {
+        return hashAlgorithms;
+    }
+
+    public void setHashAlgorithms(List<String> hashAlgorithms) {
+        this.hashAlgorithms = hashAlgorithms;
+    }
 }
@@ -20,21 +20,34 @@
  */
 package org.gbies.iosdevicedataextractor;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 import org.gbies.iosbackupextractor.BackupFile;
 import org.gbies.iosbackupextractor.BackupReadException;
 import org.gbies.iosbackupextractor.ITunesBackup;
@@ -50,8 +63,26 @@ import org.openide.util.Exceptions;
 public class IOSDataUnpacker {
 
     private final File filesCommandPath;
-    private final ByteArrayOutputStream outputStream;
-    private boolean processing;
+    private final CommandOutputLog outputLog;
+    private volatile boolean processing;
+    private volatile boolean cancelled;
+    private boolean deletePartialOutput;
+    private boolean resumeExtraction;
+    private volatile ExtractionJournal journal;
+    private boolean incrementalExtraction;
+    private volatile ExtractionJournal previousJournal;
+    private final AtomicLong reusedFiles = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private boolean deduplication;
+    private ExtractionFilter filter = new ExtractionFilter();
+    private volatile DeduplicationIndex deduplicationIndex;
+    private List<String> hashAlgorithms = Collections.emptyList();
+    private volatile HashManifest hashManifest;
+    private final ExtractionMetrics metrics = new ExtractionMetrics();
+    private volatile OutputPathRegistry outputPaths;
+    private volatile DirectoryCache directoryCache;
+    private volatile PathSanitizer pathSanitizer;
     private String backupInfo;
     private String deviceInfo;
     private String deviceName;
@@ -60,9 +91,23 @@ public class IOSDataUnpacker {
     private String uniqueDeviceID;
     private File backupDirectory;
     private File extractDirectory;
-    private int backupExtractPercent;
-    private final Pattern pattern;
+    private boolean backupEncrypted;
+    private String unlockedPassword;
+    private final List<ExtractionProgressListener> progressListeners;
+    private final List<ExtractedFileListener> extractedFileListeners;
+    private volatile ExtractionProgressTracker progress;
+    private volatile CompletableFuture<File> extraction;
+    private int workerCount;
+    private CompressionPolicy compressionPolicy;
+    private int compressionLevel;
+    private ExtractionOrder folderExtractionOrder;
+    private ExtractionOrder zipExtractionOrder;
     private final int WAIT_DEVICE_TIME = 10000;
+    private static final long DEVICE_INFO_TIMEOUT = 30000;
+    private static final long ENCRYPTION_TIMEOUT = 120000;
+    private static final long BACKUP_IDLE_TIMEOUT = 1800000;
+    private static final int RECENT_DIRECTORIES = 10000;
+    private final ProcessRunner processRunner;
 
     /**
      * Main constructor.
@@ -70,8 +115,25 @@ public class IOSDataUnpacker {
      */
     public IOSDataUnpacker() {
         this.filesCommandPath = getFilesCommandPath();
-        this.outputStream = new ByteArrayOutputStream();
-        this.pattern = Pattern.compile("(\\d+)% Finished");
+        this.processRunner = new ProcessRunner(filesCommandPath);
+        this.outputLog = new CommandOutputLog();
+        this.outputLog.addListener(new CommandOutputListener() {
+            @Override
+            public void percentChanged(int percent) {
+            }
+
+            @Override
+            public void errorReported(String line) {
+                logger.log(Level.WARNING, "libimobiledevice: {0}", line);
+            }
+        });
+        this.workerCount = ExtractionWorkerPool.getDefaultWorkerCount();
+        this.progressListeners = new CopyOnWriteArrayList<>();
+        this.extractedFileListeners = new CopyOnWriteArrayList<>();
+        this.compressionPolicy = CompressionPolicy.CONTENT_AWARE;
+        this.compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        this.folderExtractionOrder = ExtractionOrder.MANIFEST;
+        this.zipExtractionOrder = ExtractionOrder.MANIFEST;
     }
 
     /**
@@ -81,13 +143,19 @@ public class IOSDataUnpacker {
      * parameters like DeviceName, ProductName, ProductVersion, etc.
      */
     public boolean checkDevice() {
-        outputStream.reset();
-        executeCommand(new String[]{"ideviceinfo", "-s"}, outputStream);
+        outputLog.reset();
+        try {
+            executeCommand(new String[]{"ideviceinfo", "-s"}, DEVICE_INFO_TIMEOUT, ProcessRunner.NO_TIMEOUT).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            logger.log(Level.SEVERE, "Can't read device info: " + ex.getCause());
+        }
 
-        StringBuilder deviceParameters = getDeviceParameters(outputStream.toString());
+        StringBuilder deviceParameters = getDeviceParameters(outputLog.toString());
 
         if (uniqueDeviceID == null || "".equals(uniqueDeviceID)) {
-            deviceInfo = outputStream.toString();
+            deviceInfo = outputLog.toString();
             return false;
         } else {
             deviceInfo = deviceParameters.toString();
@@ -96,13 +164,16 @@ public class IOSDataUnpacker {
     }
 
     /**
-     * Create iOS backup.
+     * Create iOS backup. Commands are executed in the background, the returned
+     * future is completed when the backup is created and the encryption of
+     * the device backups is turned off again.
      *
      * @param backupDirectoryPath The folder where the backup will be created.
      * @param encrypted True if backup is to be encrypted, false if not.
+     * @return Future completed with the backup directory.
      * @throws UnpackDataException
      */
-    public void createBackup(final String backupDirectoryPath, final boolean encrypted) throws UnpackDataException {
+    public CompletableFuture<File> createBackup(final String backupDirectoryPath, final boolean encrypted) throws UnpackDataException {
         
         if ("".equals(uniqueDeviceID) || uniqueDeviceID == null) {
             throw new UnpackDataException("UniqueDeviceID is null or empty!");
@@ -114,33 +185,50 @@ public class IOSDataUnpacker {
             logger.log(Level.INFO, "Creating backup directory {0}", directory.getAbsolutePath());            
         }
 
-        outputStream.reset();
+        outputLog.reset();
         processing = true;
+        final CompletableFuture<File> backup = new CompletableFuture<>();
         Thread thread = new Thread(new Runnable() {
             @Override
             public void run() {                
                 
                 String[] cmdArray = new String[]{"idevicebackup2", "backup", "--full", backupDirectoryPath};
-                if (encrypted) {                     
-                    executeCommand(new String[]{"idevicebackup2", "encryption", "on", "1234"}, outputStream);
-                    if (!outputStream.toString().contains("ERROR:")) {
+                try {
+                    if (encrypted) {                     
                         try {
-                            Thread.sleep(WAIT_DEVICE_TIME);
-                        } catch (InterruptedException ex) {
-                            Exceptions.printStackTrace(ex);
+                            executeCommand(new String[]{"idevicebackup2", "encryption", "on", "1234"}, ENCRYPTION_TIMEOUT, ProcessRunner.NO_TIMEOUT).get();
+                            if (!outputLog.hasErrors() && !cancelled) {
+                                Thread.sleep(WAIT_DEVICE_TIME);
+                                if (!cancelled) {
+                                    executeCommand(cmdArray, ProcessRunner.NO_TIMEOUT, BACKUP_IDLE_TIMEOUT).get();
+                                }
+                            }
+                        } finally {
+                            // Encryption is turned off also after cancel, so the device is left unchanged.
+                            executeCommand(new String[]{"idevicebackup2", "encryption", "off", "1234"}, ENCRYPTION_TIMEOUT, ProcessRunner.NO_TIMEOUT).get();
                         }
-                        executeCommand(cmdArray, outputStream);
+                    } else {
+                        executeCommand(cmdArray, ProcessRunner.NO_TIMEOUT, BACKUP_IDLE_TIMEOUT).get();
                     }
-                    executeCommand(new String[]{"idevicebackup2", "encryption", "off", "1234"}, outputStream);
-                } else {
-                    executeCommand(cmdArray, outputStream);
+                    backupDirectory = new File(backupDirectoryPath, uniqueDeviceID);
+                    processing = false;
+                    if (cancelled) {
+                        logger.log(Level.WARNING, "Create backup cancelled");
+                        backup.cancel(false);
+                    } else {
+                        backup.complete(backupDirectory);
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    logger.log(Level.SEVERE, "Create backup problem: " + ex);
+                    processing = false;
+                    backup.completeExceptionally(ex instanceof ExecutionException ? ex.getCause() : ex);
                 }
-                processing = false;
-                backupDirectory = new File(backupDirectoryPath, uniqueDeviceID);
             }
-        });
+        }, "iOSDataExtractor-backup");
 
+        thread.setDaemon(true);
         thread.start();
+        return backup;
     }
 
     /**
@@ -150,15 +238,46 @@ public class IOSDataUnpacker {
      * @param password Backup password.
      * @param extractToZIP If true then the backup will be extracted to a zip
      * file if not, to a folder.
+     * @return Future completed with the extract directory when all files are
+     * extracted.
      * @throws FileNotFoundException, BackupReadException, InvalidKeyException.
      */
-    public void extractBackup(String backupDirectoryPath, String password, boolean extractToZIP) throws BackupReadException, InvalidKeyException, FileNotFoundException {
-        ITunesBackup backup = new ITunesBackup(new File(backupDirectoryPath));
+    public CompletableFuture<File> extractBackup(String backupDirectoryPath, String password, boolean extractToZIP) throws BackupReadException, InvalidKeyException, FileNotFoundException {
+        ExtractionMetrics.Phase phase = metrics.startPhase("open");
+        ITunesBackup backup;
+        boolean unlocked;
+        try {
+            backup = UnlockedBackupCache.getInstance().take(new File(backupDirectoryPath), password);
+            unlocked = backup != null;
+            if (!unlocked) {
+                backup = new ITunesBackup(new File(backupDirectoryPath));
+            }
+        } finally {
+            phase.end();
+        }
+        if (unlocked) {
+            logger.log(Level.INFO, "Keybag of the backup already unlocked in this case session");
+        }
         String cryptedBackupInfo = "Unencrypted ";
         
-        if (backup.manifest.encrypted) {
-            backup.manifest.getKeyBag().get().unlock(password);
-            backup.decryptDatabase();
+        backupEncrypted = backup.manifest.encrypted;
+        unlockedPassword = null;
+        if (backupEncrypted) {
+            if (!unlocked) {
+                phase = metrics.startPhase("unlock");
+                try {
+                    backup.manifest.getKeyBag().get().unlock(password);
+                } finally {
+                    phase.end();
+                }
+            }
+            unlockedPassword = password;
+            phase = metrics.startPhase("decryptDatabase");
+            try {
+                backup.decryptDatabase();
+            } finally {
+                phase.end();
+            }
             cryptedBackupInfo = "Encrypted ";
         }
 
@@ -173,210 +292,762 @@ public class IOSDataUnpacker {
         information.append(cryptedBackupInfo);
         backupInfo = information.toString();
 
-        extractDirectory = new File(backup.directory.getParent(), uniqueDeviceID + "_extract_" + System.currentTimeMillis());
+        extractDirectory = null;
+        if (resumeExtraction) {
+            extractDirectory = ExtractionJournal.findIncompleteExtraction(backup.directory.getAbsoluteFile().getParentFile(), uniqueDeviceID);
+            if (extractDirectory != null) {
+                logger.log(Level.INFO, "Resuming extraction to " + extractDirectory.getAbsolutePath());
+            }
+        }
+        if (extractDirectory == null) {
+            extractDirectory = new File(backup.directory.getParent(), uniqueDeviceID + "_extract_" + System.currentTimeMillis());
+        }
 
         if (!extractDirectory.exists()) {
             extractDirectory.mkdir();
         }
 
-        backupExtractPercent = 0;
+        try {
+            journal = new ExtractionJournal(extractDirectory);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can't open extraction journal, extraction will not be resumable: " + ex);
+            journal = null;
+        }
+
+        previousJournal = null;
+        reusedFiles.set(0);
+        failure.set(null);
+        failedFiles.set(0);
+        deduplicationIndex = deduplication ? new DeduplicationIndex(extractDirectory.getAbsoluteFile().getParentFile()) : null;
+        if (incrementalExtraction) {
+            previousJournal = ExtractionJournal.findPreviousExtraction(backup.directory.getAbsoluteFile().getParentFile(), uniqueDeviceID, extractDirectory);
+            if (previousJournal != null) {
+                logger.log(Level.INFO, "Incremental extraction, unchanged files are taken from " + previousJournal.getExtractDirectory().getAbsolutePath());
+            }
+        }
+
+        hashManifest = null;
+        if (!hashAlgorithms.isEmpty()) {
+            try {
+                hashManifest = new HashManifest(extractDirectory, hashAlgorithms);
+                if (previousJournal != null) {
+                    hashManifest.readPrevious(previousJournal.getExtractDirectory());
+                }
+                if (journal != null) {
+                    journal.setSyncedOutput(hashManifest);
+                }
+            } catch (IOException | NoSuchAlgorithmException ex) {
+                logger.log(Level.WARNING, "Can't create hash manifest: " + ex);
+            }
+        }
+
+        progress = new ExtractionProgressTracker(progressListeners);
+        if (filter.isEmpty()) {
+            progress.estimateTotals(backup.directory);
+        }
+        extraction = new CompletableFuture<>();
         processing = true;
+        if (cancelled) {
+            progress.cancel();
+        }
 
-        List<BackupFile> backupFiles = backup.getAllFiles();
-        if (!backupFiles.isEmpty()) {
-            if (extractToZIP) {
-                extractFilesToZipFile(backupFiles, extractDirectory);
-            } else {
-                extractFilesToFolder(backupFiles, extractDirectory);
+        BackupFileCursor backupFiles = new BackupFileCursor(backup, BackupFileCursor.DEFAULT_BATCH_SIZE, filter);
+        pathSanitizer = extractToZIP ? PathSanitizer.forZipArchive() : PathSanitizer.forFileSystem();
+        outputPaths = new OutputPathRegistry(!extractToZIP && OutputPathRegistry.isCaseInsensitive(extractDirectory), pathSanitizer.getSeparator(),
+                extractDirectory.getAbsoluteFile().getParentFile());
+        if (!extractToZIP) {
+            directoryCache = new DirectoryCache(extractDirectory);
+            if (journal != null) {
+                try {
+                    journal.forEachRecord(new Consumer<ExtractionJournal.Record>() {
+                        @Override
+                        public void accept(ExtractionJournal.Record record) {
+                            outputPaths.assign(record.getLocation(), record.getFileID());
+                        }
+                    });
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Can't read paths of extracted files from the extraction journal: " + ex);
+                }
             }
+        }
+        if (extractToZIP) {
+            extractFilesToZipFile(backup, backupFiles, extractDirectory);
         } else {
-            logger.log(Level.INFO, "No files in backup");
+            extractFilesToFolder(backup, backupFiles, extractDirectory);
         }
-
-        backup.cleanUp();
+        return extraction;
     }
 
-    public void extractBackup(boolean extractToZIP) throws FileNotFoundException, BackupReadException, InvalidKeyException {
-        extractBackup(backupDirectory.getAbsolutePath(), "1234", extractToZIP);
+    public CompletableFuture<File> extractBackup(boolean extractToZIP) throws FileNotFoundException, BackupReadException, InvalidKeyException {
+        return extractBackup(backupDirectory.getAbsolutePath(), "1234", extractToZIP);
     }
 
     /**
-     * Extracts files from iOS backup and add to ZIP archive file.
+     * Extracts files from iOS backup and add to ZIP archive file. Entries are
+     * decrypted and compressed in parallel and written in the order of the
+     * ZIP extraction order.
      *
-     * @param backupFiles List BackupFiles that will be extracted.
+     * @param backup Backup from which files are extracted, cleaned up after
+     * extraction.
+     * @param backupFiles Cursor reading BackupFiles that will be extracted.
      * @param destinationDirectory The folder where ZIP file will be created.
      */
-    private void extractFilesToZipFile(final List<BackupFile> backupFiles, final File destinationDirectory) {
+    private void extractFilesToZipFile(final ITunesBackup backup, final BackupFileCursor backupFiles, final File destinationDirectory) {
 
         Thread thread = new Thread(new Runnable() {
             @Override
             public void run() {
-                int count = backupFiles.size();
+                metrics.startPhase("extraction");
                 String path = "";
                 File zipFile = new File(destinationDirectory.getAbsolutePath(), uniqueDeviceID + ".zip");
 
-                FileOutputStream fileOutputStream = null;
-                try {
-                    fileOutputStream = new FileOutputStream(zipFile);
-                } catch (FileNotFoundException ex) {
-                    Exceptions.printStackTrace(ex);
-                }
-
-                ZipOutputStream zipOutputStream = new ZipOutputStream(fileOutputStream);
-                int i = 0;
-                for (BackupFile backupFile : backupFiles) {
-                    try {
-
-                        try {
-                            path = Paths.get(backupFile.domain, backupFile.relativePath).toString();
-                        } catch (Exception ex) {
-                            throw new UnpackDataException(ex);
-                        }
+                long count = 0;
 
-                        ZipEntry zipEntry;
-                        switch (backupFile.getFileType()) {
-                            case SYMBOLIC_LINK:
-                                zipEntry = new ZipEntry(path);
-                                zipOutputStream.putNextEntry(zipEntry);
-                                break;
-                            case DIRECTORY:
-                                zipEntry = new ZipEntry(path + "/");
-                                zipOutputStream.putNextEntry(zipEntry);
+                try (ParallelZipWriter zipWriter = new ParallelZipWriter(zipFile, workerCount, compressionPolicy, compressionLevel, progress, journal)) {
+                    File previousZipFile = previousJournal != null ? new File(previousJournal.getExtractDirectory(), zipFile.getName()) : null;
+                    if (previousZipFile != null && previousZipFile.isFile()) {
+                        zipWriter.setPreviousExtraction(previousZipFile, previousJournal);
+                    }
+                    zipWriter.setDeduplication(deduplication);
+                    zipWriter.setFingerprints(resumeExtraction || incrementalExtraction);
+                    zipWriter.setHashManifest(hashManifest);
+                    zipWriter.setMetrics(metrics.getPhase("extraction"));
+                    createDirectoryTree(backup, null);
+                    List<BackupFile> batch;
+                    while (!progress.isCancelled() && !(batch = nextBatch(backupFiles)).isEmpty()) {
+                        Map<String, String> outputPathsByFileID = assignOutputPaths(batch, true);
+                        for (BackupFile backupFile : flatten(zipExtractionOrder.schedule(batch))) {
+                            if (progress.isCancelled()) {
                                 break;
-                            case FILE:
-                                zipEntry = new ZipEntry(path);
-                                zipOutputStream.putNextEntry(zipEntry);
-
-                                FileExtractor fileExtractor = new FileExtractor(backupFile);
-
-                                try {
-                                    fileExtractor.addToArchive(zipOutputStream);
-                                } catch (BackupReadException | NotUnlockedException | UnsupportedCryptoException | IOException ex) {
-                                    logger.log(Level.WARNING, "Can't add backup file " + backupFile.relativePath + " to archive: " + ex);
+                            }
+                            path = outputPathsByFileID.get(backupFile.fileID);
+                            ExtractionJournal.Record record = journal != null ? journal.getRecord(backupFile.fileID) : null;
+                            if (record != null) {
+                                zipWriter.addRecordedEntry(path, record);
+                                if (hashManifest != null && backupFile.getFileType() == BackupFile.FileType.FILE) {
+                                    hashManifest.recordKnown(backupFile, record.getSize());
                                 }
-                                break;
+                                count++;
+                                progress.addSkippedBytes(record.getSize());
+                                progress.addFile();
+                                continue;
+                            }
+                            switch (backupFile.getFileType()) {
+                                case SYMBOLIC_LINK:
+                                    zipWriter.addEntry(path, null, backupFile.fileID);
+                                    break;
+                                case DIRECTORY:
+                                    zipWriter.addEntry(path + "/", null, backupFile.fileID);
+                                    break;
+                                case FILE:
+                                    zipWriter.addEntry(path, backupFile, backupFile.fileID);
+                                    break;
+                            }
+
+                            count++;
                         }
-
-                        zipOutputStream.closeEntry();
-
-                        backupExtractPercent = (i * 100) / count;
-                        i++;
-                    } catch (IOException ex) {
-                        logger.log(Level.SEVERE, "Zip archive output stream problem:" + ex);
-                        Exceptions.printStackTrace(ex);
-                    } catch (UnpackDataException ex) {
-                        logger.log(Level.WARNING, "Illegal characters in the path name " + path + ", not added to archive: " + ex);
+                        progress.setCursorPercent(BackupFileCursor.getPercent(batch.get(batch.size() - 1)));
+                    }
+                    zipWriter.close();
+                    failedFiles.addAndGet(zipWriter.getFailedEntries());
+                } catch (BackupReadException ex) {
+                    failure.compareAndSet(null, ex);
+                    logger.log(Level.SEVERE, "Can't read files from Manifest.db: " + ex);
+                } catch (InterruptedIOException ex) {
+                    if (!progress.isCancelled()) {
+                        failure.compareAndSet(null, ex);
+                    }
+                    logger.log(Level.WARNING, "Files extraction cancelled: " + ex);
+                } catch (IOException ex) {
+                    failure.compareAndSet(null, ex);
+                    logger.log(Level.SEVERE, "Zip archive output stream problem:" + ex);
+                    Exceptions.printStackTrace(ex);
+                } catch (UncheckedIOException ex) {
+                    failure.compareAndSet(null, ex);
+                    logger.log(Level.SEVERE, "Can't use temporary files of the extraction: " + ex);
+                } catch (InterruptedException ex) {
+                    failure.compareAndSet(null, ex);
+                    logger.log(Level.WARNING, "Files extraction interrupted: " + ex);
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (!progress.isCancelled() && getFailure() == null && zipFile.isFile()) {
+                        notifyFileExtracted(zipFile);
                     }
+                    finishExtraction(backup, count);
                 }
-
-                processing = false;
             }
-        });
+        }, "iOSDataExtractor-extraction-" + uniqueDeviceID);
 
+        thread.setDaemon(true);
         thread.start();
 
     }
 
     /**
-     * Extracts files from iOS backup and save in folder on the disk.
+     * Extracts files from iOS backup and save in folder on the disk. Files are
+     * decrypted and written in parallel by the worker pool, each run of the
+     * folder extraction order is extracted by one worker.
      *
-     * @param backupFiles List BackupFiles that will be extracted.
+     * @param backup Backup from which files are extracted, cleaned up after
+     * extraction.
+     * @param backupFiles Cursor reading BackupFiles that will be extracted.
      * @param destinationDirectory The folder where the BackupFile will be
      * unpacked.
      */
-    private void extractFilesToFolder(final List<BackupFile> backupFiles, final File destinationDirectory) {
+    private void extractFilesToFolder(final ITunesBackup backup, final BackupFileCursor backupFiles, final File destinationDirectory) {
 
         Thread thread = new Thread(new Runnable() {
             @Override
             public void run() {
-                int count = backupFiles.size();
-                String path = "";
+                metrics.startPhase("extraction");
+                ExtractionWorkerPool workerPool = new ExtractionWorkerPool(workerCount);
+                long count = 0;
 
-                int i = 0;
-                for (BackupFile backupFile : backupFiles) {
-
-                    try {
-
-                        try {
-                            path = Paths.get(backupFile.domain, backupFile.relativePath).toString();
-                        } catch (Exception ex) {
-                            throw new UnpackDataException(ex);
-                        }
-
-                        File destination = new File(destinationDirectory.getAbsolutePath(), path);
-
-                        try {
-                            Files.createDirectories(destination.getParentFile().toPath());
-                        } catch (IOException ex) {
-                            destination = new File(destinationDirectory.getAbsolutePath(), changingIllegalDirectoryName(path));
-                            createDirectories(destination.getParentFile());
-                        }
-
-                        switch (backupFile.getFileType()) {
-                            case SYMBOLIC_LINK:
-                                logger.log(Level.WARNING, "Symbolic link " + backupFile.relativePath + " not save.");
+                try {
+                    createDirectoryTree(backup, destinationDirectory);
+                    List<BackupFile> batch;
+                    while (!progress.isCancelled() && !(batch = nextBatch(backupFiles)).isEmpty()) {
+                        final Map<String, String> outputPathsByFileID = assignOutputPaths(batch, false);
+                        for (final List<BackupFile> run : folderExtractionOrder.schedule(batch)) {
+                            if (progress.isCancelled()) {
                                 break;
-                            case DIRECTORY:
-                                if (!destination.exists()) {
-                                    try {
-                                        Files.createDirectory(destination.toPath());
-                                    } catch (IOException ex) {
-                                        destination = new File(destinationDirectory.getAbsolutePath(), changingIllegalDirectoryName(path));
-                                        createDirectories(destination);
+                            }
+                            workerPool.submit(new Runnable() {
+                                @Override
+                                public void run() {
+                                    for (BackupFile backupFile : run) {
+                                        if (progress.isCancelled()) {
+                                            return;
+                                        }
+                                        if (isAlreadyExtracted(backupFile, destinationDirectory)) {
+                                            ExtractionJournal.Record record = journal.getRecord(backupFile.fileID);
+                                            File destination = new File(destinationDirectory, record.getLocation());
+                                            recordHashes(backupFile, destination);
+                                            notifyFileExtracted(destination);
+                                            progress.addSkippedBytes(record.getSize());
+                                            progress.addFile();
+                                            continue;
+                                        }
+                                        try {
+                                            extractFileToFolder(backupFile, outputPathsByFileID.get(backupFile.fileID), destinationDirectory);
+                                        } catch (UncheckedIOException ex) {
+                                            failure.compareAndSet(null, ex);
+                                            logger.log(Level.SEVERE, "Can't use temporary files of the extraction: " + ex);
+                                            return;
+                                        }
+                                        progress.addFile();
                                     }
                                 }
-                                break;
-                            case FILE:
-                                if (destination.exists()) {
-                                    destination = new File(destination.getAbsolutePath() + "_Id." + System.currentTimeMillis());
-                                    logger.log(Level.WARNING, "Duplicate name: " + path + ", file renamed to " + destination.getName());
-                                }
+                            });
 
-                                FileExtractor fileExtractor = new FileExtractor(backupFile);
+                            count += run.size();
+                        }
+                        progress.setCursorPercent(BackupFileCursor.getPercent(batch.get(batch.size() - 1)));
+                    }
+                } catch (BackupReadException ex) {
+                    failure.compareAndSet(null, ex);
+                    logger.log(Level.SEVERE, "Can't read files from Manifest.db: " + ex);
+                } catch (UncheckedIOException ex) {
+                    failure.compareAndSet(null, ex);
+                    logger.log(Level.SEVERE, "Can't use temporary files of the extraction: " + ex);
+                } catch (InterruptedException ex) {
+                    failure.compareAndSet(null, ex);
+                    logger.log(Level.WARNING, "Files extraction interrupted: " + ex);
+                    Thread.currentThread().interrupt();
+                } finally {
+                    awaitWorkers(workerPool);
+                    finishExtraction(backup, count);
+                }
+            }
+        }, "iOSDataExtractor-extraction-" + uniqueDeviceID);
+
+        thread.setDaemon(true);
+        thread.start();
+    }
 
+    /**
+     * Registers all directories of the extracted files in the output path
+     * registry before paths are assigned to the files, so no file gets the
+     * path of a directory listed later in Manifest.db. Directories of the
+     * DIRECTORY entries and parent directories of the files are read from
+     * Manifest.db. When extracting to folder, the directories are also
+     * created in parallel, later the workers find them in the directory
+     * cache. Only the {@value #RECENT_DIRECTORIES} most recently seen
+     * directories are skipped, a directory seen again after them is only
+     * registered and created again, which doesn't change the result.
+     *
+     * @param backup Backup from which files are extracted.
+     * @param destinationDirectory The folder where the backup is extracted or
+     * null if the directories are only registered.
+     * @throws BackupReadException, InterruptedException
+     */
+    private void createDirectoryTree(ITunesBackup backup, File destinationDirectory) throws BackupReadException, InterruptedException {
+        ExtractionMetrics.Phase phase = metrics.startPhase("directoryTree");
+        ExtractionWorkerPool directoryPool = destinationDirectory != null ? new ExtractionWorkerPool(workerCount) : null;
+        Set<String> directories = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > RECENT_DIRECTORIES;
+            }
+        });
+        long count = 0;
+        try {
+            BackupFileCursor backupFiles = new BackupFileCursor(backup, BackupFileCursor.DEFAULT_BATCH_SIZE, filter);
+            List<BackupFile> batch;
+            while (!progress.isCancelled() && !(batch = backupFiles.nextBatch()).isEmpty()) {
+                for (BackupFile backupFile : batch) {
+                    if (backupFile.getFileType() == BackupFile.FileType.SYMBOLIC_LINK) {
+                        continue;
+                    }
+                    String path = pathSanitizer.sanitize(backupFile.domain, backupFile.relativePath);
+                    if (backupFile.getFileType() != BackupFile.FileType.DIRECTORY) {
+                        path = path.substring(0, Math.max(0, path.lastIndexOf(pathSanitizer.getSeparator())));
+                    }
+                    if (path.isEmpty() || !directories.add(path)) {
+                        continue;
+                    }
+                    outputPaths.registerDirectory(path);
+                    count++;
+                    if (directoryPool != null) {
+                        final File directory = new File(destinationDirectory.getAbsolutePath(), path);
+                        directoryPool.submit(new Runnable() {
+                            @Override
+                            public void run() {
                                 try {
-                                    fileExtractor.extractToFile(destination);
-                                } catch (BackupReadException | NotUnlockedException | UnsupportedCryptoException | IOException ex) {
-                                    logger.log(Level.SEVERE, "Can't extract backup file " + path + " :" + ex);
+                                    directoryCache.createDirectories(directory);
+                                } catch (IOException ex) {
+                                    logger.log(Level.WARNING, "Can't create directory " + directory.getAbsolutePath() + " :" + ex);
                                 }
-                                break;
-                        }
+                            }
+                        });
+                    }
+                }
+            }
+        } finally {
+            if (directoryPool != null) {
+                awaitWorkers(directoryPool);
+            }
+            phase.end();
+        }
+        logger.log(Level.INFO, count + " directories " + (directoryPool != null ? "created" : "registered") + " before extraction");
+    }
+
+    /**
+     * Reads next batch of files from Manifest.db, the time of the query is
+     * measured.
+     */
+    private List<BackupFile> nextBatch(BackupFileCursor backupFiles) throws BackupReadException {
+        ExtractionMetrics.Phase phase = metrics.startPhase("manifestQuery");
+        try {
+            return backupFiles.nextBatch();
+        } finally {
+            phase.end();
+        }
+    }
 
-                    } catch (UnpackDataException ex) {
-                        logger.log(Level.WARNING, "Illegal characters in the path name " + path + ", not extracted: " + ex);
+    /**
+     * Waits for the workers still extracting files, so the backup is not
+     * cleaned up while it is read.
+     *
+     * @param workerPool Pool of workers extracting files.
+     */
+    private void awaitWorkers(ExtractionWorkerPool workerPool) {
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                workerPool.awaitCompletion();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the cause of the failed extraction.
+     *
+     * @return Exception which stopped the extraction, exception reporting the
+     * number of files which could not be extracted or null if all files were
+     * extracted.
+     */
+    private Throwable getFailure() {
+        Throwable cause = failure.get();
+        if (cause == null && failedFiles.get() > 0) {
+            cause = new IOException(failedFiles.get() + " files can't be extracted");
+        }
+        return cause;
+    }
+
+    /**
+     * Cleans up the backup after extraction of all files, notifies progress
+     * listeners and completes the extraction future. The future of cancelled
+     * extraction is cancelled and the partial output is deleted if requested.
+     * The future of failed extraction is completed exceptionally and its
+     * journal is not marked complete, so the extraction can be resumed.
+     *
+     * @param backup Backup from which files were extracted.
+     * @param count Number of extracted files.
+     */
+    private void finishExtraction(ITunesBackup backup, long count) {
+        Throwable cause = getFailure();
+        if (count == 0) {
+            logger.log(Level.INFO, "No files in backup");
+        }
+        if (reusedFiles.get() > 0) {
+            logger.log(Level.INFO, reusedFiles.get() + " unchanged files linked from the previous extraction");
+        }
+        if (deduplicationIndex != null) {
+            if (deduplicationIndex.getDuplicateFiles() > 0) {
+                logger.log(Level.INFO, deduplicationIndex.getDuplicateFiles() + " duplicate files (" + deduplicationIndex.getDuplicateBytes() + " bytes) replaced with links");
+            }
+            deduplicationIndex.close();
+        }
+        outputPaths.close();
+        if (hashManifest != null) {
+            try {
+                hashManifest.close();
+                if (progress.isCancelled() && deletePartialOutput) {
+                    HashManifest.getManifestFile(extractDirectory).delete();
+                }
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Can't write hash manifest: " + ex);
+            }
+        }
+        try {
+            backup.cleanUp();
+            if (unlockedPassword != null) {
+                UnlockedBackupCache.getInstance().put(backup, unlockedPassword);
+                unlockedPassword = null;
+            }
+            if (previousJournal != null) {
+                previousJournal.close();
+            }
+            if (journal != null) {
+                if (progress.isCancelled() && deletePartialOutput) {
+                    journal.delete();
+                } else {
+                    if (!progress.isCancelled() && cause == null) {
+                        journal.markComplete();
                     }
+                    journal.close();
+                }
+            }
+            if (progress.isCancelled() && deletePartialOutput) {
+                deleteDirectory(extractDirectory);
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can't close extraction journal: " + ex);
+        } finally {
+            metrics.getPhase("extraction").end();
+            processing = false;
+            progress.finish();
+            if (progress.isCancelled()) {
+                logger.log(Level.WARNING, "Files extraction cancelled after " + count + " files");
+                extraction.cancel(false);
+            } else if (cause != null) {
+                logger.log(Level.SEVERE, "Files extraction failed after " + count + " files: " + cause);
+                extraction.completeExceptionally(cause);
+            } else {
+                extraction.complete(extractDirectory);
+            }
+        }
+    }
+
+    /**
+     * Extracts single file from iOS backup and save in folder on the disk.
+     *
+     * @param backupFile BackupFile that will be extracted.
+     * @param path Output path assigned to the file.
+     * @param destinationDirectory The folder where the BackupFile will be
+     * unpacked.
+     */
+    private void extractFileToFolder(BackupFile backupFile, String path, File destinationDirectory) {
+        File destination = new File(destinationDirectory.getAbsolutePath(), path);
+
+        try {
+            directoryCache.createDirectories(destination.getParentFile());
+        } catch (IOException ex) {
+            metrics.getPhase("extraction").recordError(ex);
+            failedFiles.incrementAndGet();
+            logger.log(Level.SEVERE, "Can't create directory of the backup file " + path + " :" + ex);
+            return;
+        }
+
+        switch (backupFile.getFileType()) {
+            case SYMBOLIC_LINK:
+                logger.log(Level.WARNING, "Symbolic link " + backupFile.relativePath + " not save.");
+                break;
+            case DIRECTORY:
+                try {
+                    directoryCache.createDirectories(destination);
+                    notifyDirectoryCreated(destination);
+                } catch (IOException ex) {
+                    failedFiles.incrementAndGet();
+                    logger.log(Level.SEVERE, "Can't create directory " + path + " :" + ex);
+                }
+                break;
+            case FILE:
+                FileExtractor fileExtractor = new FileExtractor(backupFile, backupEncrypted, progress);
+                ExtractionMetrics.FileTimer fileTimer = metrics.getPhase("extraction").startFile();
 
-                    backupExtractPercent = (i * 100 / count);
-                    i++;
+                try {
+                    String fingerprint = (resumeExtraction || incrementalExtraction) ? FileFingerprint.of(backupFile) : null;
+                    String digest = null;
+                    if (!linkPreviousFile(backupFile, fingerprint, destination)) {
+                        if (deduplicationIndex != null) {
+                            fileExtractor.addDigestAlgorithm(DeduplicationIndex.DIGEST_ALGORITHM);
+                        }
+                        if (hashManifest != null) {
+                            for (String algorithm : hashManifest.getAlgorithms()) {
+                                fileExtractor.addDigestAlgorithm(algorithm);
+                            }
+                        }
+                        if (!extractKnownSize(backupFile, fileExtractor, destination)) {
+                            fileExtractor.extractToFile(destination);
+                            if (deduplicationIndex != null) {
+                                linkDuplicateFile(fileExtractor.getDigest(DeduplicationIndex.DIGEST_ALGORITHM), destination);
+                            }
+                        }
+                        digest = fileExtractor.getDigest(DeduplicationIndex.DIGEST_ALGORITHM);
+                        if (hashManifest != null) {
+                            hashManifest.record(backupFile, destination.length(), fileExtractor.getDigests());
+                        }
+                    } else {
+                        recordHashes(backupFile, destination);
+                    }
+                    if (journal != null) {
+                        journal.record(backupFile.fileID, destination.length(), digest, fingerprint, getLocation(destinationDirectory, destination));
+                    }
+                    fileTimer.end(destination.length());
+                    notifyFileExtracted(destination);
+                } catch (InterruptedIOException ex) {
+                    logger.log(Level.FINE, "Partially extracted file deleted: " + ex);
+                    destination.delete();
+                } catch (BackupReadException | NotUnlockedException | UnsupportedCryptoException | NoSuchAlgorithmException | IOException ex) {
+                    metrics.getPhase("extraction").recordError(ex);
+                    failedFiles.incrementAndGet();
+                    logger.log(Level.SEVERE, "Can't extract backup file " + path + " :" + ex);
+                }
+                break;
+        }
+    }
+
+    private static List<BackupFile> flatten(List<List<BackupFile>> runs) {
+        List<BackupFile> files = new ArrayList<>();
+        for (List<BackupFile> run : runs) {
+            files.addAll(run);
+        }
+        return files;
+    }
+
+    /**
+     * Assigns output paths to the files of the batch in the cursor order
+     * before the files are scheduled, so the paths don't depend on the order
+     * in which the workers extract the files.
+     *
+     * @param batch Batch of BackupFiles in the cursor order.
+     * @param archive True if symbolic links are written as ZIP entries.
+     * @return Output paths by fileID.
+     */
+    private Map<String, String> assignOutputPaths(List<BackupFile> batch, boolean archive) {
+        Map<String, String> paths = new HashMap<>();
+        for (BackupFile backupFile : batch) {
+            String path = getOutputPath(backupFile);
+            if (backupFile.getFileType() == BackupFile.FileType.DIRECTORY) {
+                outputPaths.registerDirectory(path);
+            } else if (backupFile.getFileType() == BackupFile.FileType.FILE || archive) {
+                String uniquePath = outputPaths.assign(path, backupFile.fileID);
+                if (!uniquePath.equals(path)) {
+                    logger.log(Level.WARNING, "Duplicate name: " + path + ", file renamed to " + uniquePath);
+                    path = uniquePath;
                 }
-                processing = false;
             }
-        });
+            paths.put(backupFile.fileID, path);
+        }
+        return paths;
+    }
 
-        thread.start();
+    /**
+     * @param backupFile BackupFile to be extracted.
+     * @return Relative output path valid on the target, changes of the path
+     * are logged.
+     */
+    private String getOutputPath(BackupFile backupFile) {
+        String path = pathSanitizer.sanitize(backupFile.domain, backupFile.relativePath);
+        if (backupFile.getFileType() == BackupFile.FileType.FILE
+                && !path.replace(File.separatorChar, '/').equals(backupFile.domain + "/" + backupFile.relativePath)) {
+            logger.log(Level.WARNING, "Illegal path name " + backupFile.domain + "/" + backupFile.relativePath + ", changing to " + path);
+        }
+        return path;
     }
 
     /**
-     * @return Backup creation percentage.
+     * Lists the file extracted by the earlier extraction in the hash
+     * manifest.
+     *
+     * @param backupFile BackupFile extracted earlier.
+     * @param destination Extracted file.
      */
-    public int getBackupCreatePercent() {
-        int percent;
+    private void recordHashes(BackupFile backupFile, File destination) {
+        if (hashManifest == null) {
+            return;
+        }
+        try {
+            hashManifest.recordFile(backupFile, destination);
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            logger.log(Level.WARNING, "Can't list " + destination.getAbsolutePath() + " in hash manifest: " + ex);
+        }
+    }
 
-        String textLog = outputStream.toString();
-        Matcher matcher = pattern.matcher(textLog);
+    /**
+     * Checks if the file was completely extracted by the interrupted
+     * extraction and has not been changed since.
+     *
+     * @param backupFile BackupFile to be extracted.
+     * @param destinationDirectory The folder where the BackupFile is unpacked.
+     * @return True if the file can be skipped.
+     */
+    private boolean isAlreadyExtracted(BackupFile backupFile, File destinationDirectory) {
+        if (journal == null) {
+            return false;
+        }
+        ExtractionJournal.Record record = journal.getRecord(backupFile.fileID);
+        if (record == null) {
+            return false;
+        }
+        File destination = new File(destinationDirectory, record.getLocation());
+        return destination.isFile() && destination.length() == record.getSize();
+    }
 
-        String lastFinishedLine = null;
-        while (matcher.find()) {
-            lastFinishedLine = matcher.group(1);
+    /**
+     * Replaces the destination file with hard link to the file of the
+     * previous extraction if the backup file has not been changed since.
+     *
+     * @param backupFile BackupFile to be extracted.
+     * @param fingerprint Fingerprint of the backup file or null.
+     * @param destination The file to which the data is to be extracted.
+     * @return True if the file of the previous extraction has been linked.
+     */
+    private boolean linkPreviousFile(BackupFile backupFile, String fingerprint, File destination) {
+        if (previousJournal == null || fingerprint == null) {
+            return false;
+        }
+        ExtractionJournal.Record record = previousJournal.getRecord(backupFile.fileID);
+        if (record == null || !fingerprint.equals(record.getFingerprint())) {
+            return false;
+        }
+        File previousFile = new File(previousJournal.getExtractDirectory(), record.getLocation());
+        if (!previousFile.isFile() || previousFile.length() != record.getSize()) {
+            return false;
         }
 
         try {
-            percent = Integer.valueOf(lastFinishedLine);
-        } catch (NumberFormatException e) {
-            percent = 0;
+            Files.deleteIfExists(destination.toPath());
+            Files.createLink(destination.toPath(), previousFile.toPath());
+            reusedFiles.incrementAndGet();
+            progress.addSkippedBytes(record.getSize());
+            return true;
+        } catch (IOException | UnsupportedOperationException ex) {
+            logger.log(Level.FINE, "Can't link " + previousFile.getAbsolutePath() + ", file will be extracted: " + ex);
+            return false;
+        }
+    }
+
+    /**
+     * Extracts the file with the size of an already extracted file. The
+     * content is hashed while it is written to temporary file in the
+     * destination directory, so it is read only once. The temporary file is
+     * replaced with hard link to the extracted file with the same content or
+     * renamed to the destination file and added to the deduplication index.
+     *
+     * @param backupFile BackupFile to be extracted.
+     * @param fileExtractor Extractor of the file with the digest algorithms
+     * added.
+     * @param destination The file to which the data is to be extracted.
+     * @return True if the file has been extracted, false if the size of the
+     * file is not known and the file has to be extracted.
+     * @throws BackupReadException, NotUnlockedException,
+     * UnsupportedCryptoException, IOException
+     */
+    private boolean extractKnownSize(BackupFile backupFile, FileExtractor fileExtractor, File destination) throws BackupReadException, NotUnlockedException, UnsupportedCryptoException, IOException {
+        if (deduplicationIndex == null || backupFile.getSize() == 0 || !deduplicationIndex.markSize(backupFile.getSize())) {
+            return false;
         }
 
-        return percent;
+        File tempFile = new File(destination.getParentFile(), destination.getName() + ".part");
+        try {
+            fileExtractor.extractToFile(tempFile);
+            String digest = fileExtractor.getDigest(DeduplicationIndex.DIGEST_ALGORITHM);
+            long size = tempFile.length();
+            File original = size > 0 ? deduplicationIndex.get(digest, size) : null;
+            if (original != null && !original.equals(destination)) {
+                try {
+                    Files.deleteIfExists(destination.toPath());
+                    Files.createLink(destination.toPath(), original.toPath());
+                    deduplicationIndex.addDuplicate(size);
+                    return true;
+                } catch (IOException | UnsupportedOperationException ex) {
+                    logger.log(Level.FINE, "Can't link duplicate file " + destination.getAbsolutePath() + ", extracted file is kept: " + ex);
+                }
+            }
+            Files.move(tempFile.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            linkDuplicateFile(digest, destination);
+            return true;
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Adds the written file to the deduplication index. If the file with the
+     * same content has been written in parallel, the file is replaced with
+     * hard link to it. The link is created under temporary name and moved
+     * over the file, so the file is kept if the link can't be created.
+     *
+     * @param digest Hex digest of the file content.
+     * @param destination Extracted file.
+     */
+    private void linkDuplicateFile(String digest, File destination) {
+        long size = destination.length();
+        if (size == 0) {
+            return;
+        }
+        File original = deduplicationIndex.putIfAbsent(digest, size, destination);
+        if (original == null || original.equals(destination)) {
+            return;
+        }
+
+        Path link = new File(destination.getParentFile(), destination.getName() + ".link").toPath();
+        try {
+            Files.createLink(link, original.toPath());
+            Files.move(link, destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            deduplicationIndex.addDuplicate(size);
+        } catch (IOException | UnsupportedOperationException ex) {
+            logger.log(Level.FINE, "Can't link duplicate file " + destination.getAbsolutePath() + " :" + ex);
+            try {
+                Files.deleteIfExists(link);
+            } catch (IOException deleteEx) {
+                logger.log(Level.FINE, "Can't delete link " + link + " :" + deleteEx);
+            }
+        }
+    }
+
+    /**
+     * @return Path of the extracted file relative to the extract directory,
+     * saved in the journal.
+     */
+    private static String getLocation(File destinationDirectory, File destination) {
+        return destinationDirectory.toPath().relativize(destination.toPath()).toString();
+    }
+
+    /**
+     * @return Backup creation percentage.
+     */
+    public int getBackupCreatePercent() {
+        return outputLog.getPercent();
     }
 
     /**
@@ -412,80 +1083,133 @@ public class IOSDataUnpacker {
     }
 
     /**
-     * Executes shell commands.
+     * Executes shell commands asynchronously. Standard output and standard
+     * error are parsed by the command output log.
      *
      * @param cmdArray The command array string to be executed.
-     * @param out Result of the command operation.
+     * @param timeout Maximum execution time in milliseconds.
+     * @param idleTimeout Maximum time in milliseconds without output.
+     * @return Future result of the command.
      */    
-    private void executeCommand(String[] cmdArray, OutputStream out) {
-        if (filesCommandPath != null) {
-            cmdArray[0] = filesCommandPath.getAbsolutePath() + File.separator + cmdArray[0];
-        }
+    private CompletableFuture<ProcessResult> executeCommand(String[] cmdArray, long timeout, long idleTimeout) {
+        return processRunner.run(cmdArray, outputLog.newStream(), outputLog.newStream(), timeout, idleTimeout);
+    }
 
-        ProcessBuilder builder = new ProcessBuilder(cmdArray);
-        Process process;
+
+    /**
+     * Creates directories based on path.
+     *
+     * @param path The path from which directories are created.
+     */
+    void createDirectories(File path) {
         try {
-            process = builder.start();
+            Files.createDirectories(path.toPath());
         } catch (IOException ex) {
-            processing = false;
-            ex.printStackTrace();
-            return;
+            logger.log(Level.SEVERE, "Create directories problem " + path.getAbsolutePath() + " :" + ex);
+            Exceptions.printStackTrace(ex);
         }
+    }
 
-        StreamTransfer outReader = new StreamTransfer(process.getInputStream(), out);
-        outReader.start();
-
+    /**
+     * Deletes directory with partial output of cancelled extraction.
+     *
+     * @param directory The folder to be deleted.
+     */
+    private void deleteDirectory(File directory) {
         try {
-            if (out != null) {
-                process.waitFor();
-                outReader.join();
-            }
-        } catch (InterruptedException ex) {
-            Thread.currentThread().interrupt();
+            Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            logger.log(Level.INFO, "Partial output deleted " + directory.getAbsolutePath());
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Can't delete partial output " + directory.getAbsolutePath() + " :" + ex);
         }
     }
-   
+
     /**
-     * Changes illegal directory path name.
-     *
-     * @param destinationPath The name of the path to be changed.
-     */
-    private String changingIllegalDirectoryName(String destinationPath) {
-        String[] names = {"CON", "PRN", "AUX", "NUL", "COM1", "COM2", "COM3", "COM4", "COM5", "COM6",
-            "COM7", "COM8", "COM9", "LPT1", "LPT2", "LPT3", "LPT4", "LPT5", "LPT6", "LPT7", "LPT8", "LPT9"};
-        String newDestinationPath = destinationPath;
-        String dirName = null;
-
-        for (String name : names) {
-            if (destinationPath.toUpperCase().contains(File.separator + name + File.separator)) {
-                int idx = -1;
-                while ((idx = destinationPath.toUpperCase().indexOf(File.separator + name + File.separator, idx + 1)) != -1) {
-                    dirName = destinationPath.substring(idx, destinationPath.indexOf(File.separator, idx + 1));
-                    newDestinationPath = destinationPath.substring(0, idx) + dirName + "_(rename)" + destinationPath.substring(idx + dirName.length());
-                    destinationPath = newDestinationPath;
-                }
-                logger.log(Level.WARNING, "Illegal directory name " + dirName + " in path, changing to " + newDestinationPath);
-            }
-            if (destinationPath.toUpperCase().endsWith(File.separator + name)) {
-                newDestinationPath = destinationPath + "_(rename)";
-                logger.log(Level.WARNING, "Illegal path name " + destinationPath + ", changing to " + newDestinationPath);
-            }
+     * Cancels backup creation and files extraction. Running libimobiledevice
+     * commands are killed, workers stop between files or while copying large
+     * files and the ZIP archive is closed with the entries already written.
+     */
+    public void cancel() {
+        cancelled = true;
+        processRunner.destroyAll();
+        ExtractionProgressTracker currentProgress = progress;
+        if (currentProgress != null) {
+            currentProgress.cancel();
         }
-        return newDestinationPath;
     }
 
     /**
-     * Creates directories based on path.
+     * @return True if backup creation or extraction has been cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @param deletePartialOutput True if output of cancelled extraction is to
+     * be deleted.
+     */
+    public void setDeletePartialOutput(boolean deletePartialOutput) {
+        this.deletePartialOutput = deletePartialOutput;
+    }
+
+    /**
+     * @param resumeExtraction True if the latest interrupted extraction of the
+     * device is to be continued instead of starting new extraction.
+     */
+    public void setResumeExtraction(boolean resumeExtraction) {
+        this.resumeExtraction = resumeExtraction;
+    }
+
+    /**
+     * @param incrementalExtraction True if files not changed since the
+     * previous extraction of the device are to be linked (folder) or copied
+     * without decryption (ZIP) from the previous extraction.
+     */
+    public void setIncrementalExtraction(boolean incrementalExtraction) {
+        this.incrementalExtraction = incrementalExtraction;
+    }
+
+    /**
+     * @param deduplication True if files with the same content are to be
+     * extracted once, duplicates are hard links (folder) or references listed
+     * in the archive (ZIP).
+     */
+    public void setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+    }
+
+    /**
+     * Sets filter selecting files to be extracted. Size of the filtered backup
+     * is not estimated, the progress is estimated from the Manifest.db cursor.
      *
-     * @param path The path from which directories are created.
+     * @param filter Filter of the files, empty filter extracts all files.
      */
-    void createDirectories(File path) {
-        try {
-            Files.createDirectories(path.toPath());
-        } catch (IOException ex) {
-            logger.log(Level.SEVERE, "Create directories problem " + path.getAbsolutePath() + " :" + ex);
-            Exceptions.printStackTrace(ex);
-        }
+    public void setExtractionFilter(ExtractionFilter filter) {
+        this.filter = filter != null ? filter : new ExtractionFilter();
+    }
+
+    /**
+     * Sets digest algorithms computed while the files are written and listed
+     * in the hash manifest next to the extract directory.
+     *
+     * @param hashAlgorithms Digest algorithms, e.g. MD5, SHA-256, empty list
+     * if the manifest is not to be created.
+     */
+    public void setHashAlgorithms(List<String> hashAlgorithms) {
+        this.hashAlgorithms = hashAlgorithms != null ? hashAlgorithms : Collections.<String>emptyList();
     }
 
     /**
@@ -499,11 +1223,128 @@ public class IOSDataUnpacker {
      * @return Backup extract percent.
      */
     public int getBackupExtractPercent() {
-        return backupExtractPercent;
+        ExtractionProgressTracker currentProgress = progress;
+        return currentProgress != null ? currentProgress.getPercent() : 0;
+    }
+
+    /**
+     * Adds listener notified about the progress of files extraction.
+     *
+     * @param listener Listener to be added.
+     */
+    public void addProgressListener(ExtractionProgressListener listener) {
+        progressListeners.add(listener);
+    }
+
+    public void removeProgressListener(ExtractionProgressListener listener) {
+        progressListeners.remove(listener);
+    }
+
+    /**
+     * @return Performance metrics of the phases of the extraction.
+     */
+    public ExtractionMetrics getMetrics() {
+        return metrics;
     }
 
+    /**
+     * Adds listener notified about each completely written file, so the file
+     * can be processed while the extraction is still running.
+     *
+     * @param listener Listener to be added.
+     */
+    public void addExtractedFileListener(ExtractedFileListener listener) {
+        extractedFileListeners.add(listener);
+    }
+
+    public void removeExtractedFileListener(ExtractedFileListener listener) {
+        extractedFileListeners.remove(listener);
+    }
+
+    private void notifyFileExtracted(File file) {
+        for (ExtractedFileListener listener : extractedFileListeners) {
+            listener.fileExtracted(file);
+        }
+    }
+
+    private void notifyDirectoryCreated(File directory) {
+        for (ExtractedFileListener listener : extractedFileListeners) {
+            listener.directoryCreated(directory);
+        }
+    }
+
+    /**
+     * Sets number of worker threads used to extract files to folder.
+     *
+     * @param workerCount Number of workers, default is number of processors.
+     */
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount > 0 ? workerCount : ExtractionWorkerPool.getDefaultWorkerCount();
+    }
+
+    /**
+     * Sets compression of files extracted to ZIP archive.
+     *
+     * @param compressionPolicy Policy deciding which files are compressed.
+     * @param compressionLevel Deflate level (0-9) of compressed files without
+     * own level of the compression policy.
+     */
+    public void setCompression(CompressionPolicy compressionPolicy, int compressionLevel) {
+        this.compressionPolicy = compressionPolicy;
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Sets order in which files are read from the backup. Manifest order is
+     * the default, it keeps ZIP entries in the fileID order, so the same
+     * backup gives the same archive. Locality order reads the hashed content
+     * directories sequentially, inode order also sorts the files by inode,
+     * which helps on local hard disks but costs a stat of every file.
+     *
+     * @param folderExtractionOrder Order of files extracted to folder.
+     * @param zipExtractionOrder Order of files added to ZIP archive.
+     */
+    public void setExtractionOrder(ExtractionOrder folderExtractionOrder, ExtractionOrder zipExtractionOrder) {
+        this.folderExtractionOrder = folderExtractionOrder;
+        this.zipExtractionOrder = zipExtractionOrder;
+    }
+
+    /**
+     * @return Recent output lines of the executed commands.
+     */
     public String getOutputStreamString() {
-        return outputStream.toString();
+        return outputLog.toString();
+    }
+
+    /**
+     * @return Error lines reported by the executed commands.
+     */
+    public List<String> getOutputErrors() {
+        return outputLog.getErrorLines();
+    }
+
+    /**
+     * Adds listener notified about percent and errors parsed from the output
+     * of the executed commands.
+     *
+     * @param listener Listener to be added.
+     */
+    public void addCommandOutputListener(CommandOutputListener listener) {
+        outputLog.addListener(listener);
+    }
+
+    public void removeCommandOutputListener(CommandOutputListener listener) {
+        outputLog.removeListener(listener);
+    }
+
+    /**
+     * Writes the whole output of the next executed commands to the log file,
+     * only recent lines are kept in memory.
+     *
+     * @param logFile Log file or null if output is not to be saved.
+     */
+    public void setCommandLogFile(File logFile) {
+        outputLog.setLogFile(logFile);
     }
 
     public String getDeviceInfo() {
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+import org.sleuthkit.autopsy.ingest.IngestJobSettings;
+import org.sleuthkit.autopsy.ingest.IngestManager;
+import org.sleuthkit.autopsy.ingest.IngestStream;
+import org.sleuthkit.autopsy.ingest.IngestStreamClosedException;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.Host;
+import org.sleuthkit.datamodel.LocalFile;
+import org.sleuthkit.datamodel.LocalFilesDataSource;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+import org.sleuthkit.datamodel.TskData;
+
+/**
+ * Adds extracted files to the local files data source and to the ingest
+ * stream while the extraction is still running. Files are queued by the
+ * workers and added in batches by the background thread, one case database
+ * transaction per batch. Created directories are added too, so empty
+ * directories of the backup are listed in the data source. Files of the
+ * batch which can't be added are added again one by one, files which still
+ * can't be added are reported by {@link #getFailedFiles()}.
+ */
+public class IngestStreamFileAdder implements ExtractedFileListener {
+
+    private static final int BATCH_SIZE = 500;
+    private static final long BATCH_INTERVAL = 2000;
+    private final SleuthkitCase caseDb;
+    private final BlockingQueue<QueuedFile> queuedFiles = new LinkedBlockingQueue<>();
+    private final Map<String, Content> directories = new HashMap<>();
+    private final List<String> transactionDirectories = new ArrayList<>();
+    private final List<File> failedFiles = Collections.synchronizedList(new ArrayList<File>());
+    private volatile boolean finished;
+    private LocalFilesDataSource dataSource;
+    private IngestStream ingestStream;
+    private File rootDirectory;
+    private Thread thread;
+    private long addedFiles;
+
+    /**
+     * Main constructor. Files extracted before the data source is opened are
+     * queued.
+     *
+     * @param caseDb Database of the current case.
+     */
+    public IngestStreamFileAdder(SleuthkitCase caseDb) {
+        this.caseDb = caseDb;
+    }
+
+    @Override
+    public void fileExtracted(File file) {
+        queuedFiles.add(new QueuedFile(file, false));
+    }
+
+    @Override
+    public void directoryCreated(File directory) {
+        queuedFiles.add(new QueuedFile(directory, true));
+    }
+
+    /**
+     * Creates the data source, opens the ingest stream and starts adding
+     * queued files.
+     *
+     * @param dataSourceName Name of the data source.
+     * @param host Host of the data source or null.
+     * @param rootDirectory The folder where the backup is extracted.
+     * @param settings Settings of the ingest job.
+     * @return New data source.
+     * @throws TskCoreException
+     */
+    public LocalFilesDataSource open(String dataSourceName, Host host, File rootDirectory, IngestJobSettings settings) throws TskCoreException {
+        this.rootDirectory = rootDirectory;
+
+        SleuthkitCase.CaseDbTransaction transaction = caseDb.beginTransaction();
+        try {
+            dataSource = caseDb.addLocalFilesDataSource(UUID.randomUUID().toString(), dataSourceName, "", host, transaction);
+            directories.put("", caseDb.addLocalDirectory(dataSource.getId(), rootDirectory.getName(), transaction));
+            transaction.commit();
+        } catch (TskCoreException ex) {
+            transaction.rollback();
+            throw ex;
+        }
+
+        ingestStream = IngestManager.getInstance().openIngestStream(dataSource, settings);
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!finished) {
+                        QueuedFile file = queuedFiles.poll(BATCH_INTERVAL, TimeUnit.MILLISECONDS);
+                        if (file != null) {
+                            List<QueuedFile> batch = new ArrayList<>();
+                            batch.add(file);
+                            queuedFiles.drainTo(batch, BATCH_SIZE - 1);
+                            addBatch(batch);
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "iOSDataExtractor-ingest-stream");
+        thread.setDaemon(true);
+        thread.start();
+        return dataSource;
+    }
+
+    /**
+     * Adds remaining queued files and closes the ingest stream, the ingest
+     * job continues with the added files.
+     *
+     * @throws InterruptedException
+     */
+    public void finish() throws InterruptedException {
+        finished = true;
+        if (thread == null) {
+            return;
+        }
+        thread.join();
+
+        List<QueuedFile> batch = new ArrayList<>();
+        while (queuedFiles.drainTo(batch, BATCH_SIZE) > 0) {
+            addBatch(batch);
+            batch.clear();
+        }
+        ingestStream.close();
+        logger.log(Level.INFO, addedFiles + " files added to the ingest stream");
+    }
+
+    /**
+     * Stops the ingest job, called when the extraction is cancelled or
+     * failed. Queued files are not added, the batch being added is finished
+     * before the ingest stream is stopped.
+     */
+    public void stop() {
+        finished = true;
+        if (thread != null) {
+            boolean interrupted = Thread.interrupted();
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (ingestStream != null) {
+            ingestStream.stop();
+        }
+    }
+
+    /**
+     * @return Extracted files and directories which can't be added to the
+     * data source.
+     */
+    public List<File> getFailedFiles() {
+        synchronized (failedFiles) {
+            return new ArrayList<>(failedFiles);
+        }
+    }
+
+    /**
+     * Adds the batch in one transaction. When the transaction fails, it is
+     * rolled back and the files are added again one by one, so one file
+     * doesn't drop the whole batch.
+     */
+    private void addBatch(List<QueuedFile> batch) {
+        try {
+            addFiles(batch);
+        } catch (TskCoreException ex) {
+            logger.log(Level.WARNING, "Can't add " + batch.size() + " extracted files to the data source, files are added one by one: " + ex);
+            for (QueuedFile queuedFile : batch) {
+                try {
+                    addFiles(Collections.singletonList(queuedFile));
+                } catch (TskCoreException fileEx) {
+                    logger.log(Level.SEVERE, "Can't add extracted file " + queuedFile.file.getAbsolutePath() + " to the data source: " + fileEx);
+                    failedFiles.add(queuedFile.file);
+                } catch (IngestStreamClosedException fileEx) {
+                    logger.log(Level.WARNING, "Ingest stream closed, extracted files not analyzed: " + fileEx);
+                    return;
+                }
+            }
+        } catch (IngestStreamClosedException ex) {
+            logger.log(Level.WARNING, "Ingest stream closed, extracted files not analyzed: " + ex);
+        }
+    }
+
+    private void addFiles(List<QueuedFile> files) throws TskCoreException, IngestStreamClosedException {
+        List<Long> fileIds = new ArrayList<>(files.size());
+        SleuthkitCase.CaseDbTransaction transaction = caseDb.beginTransaction();
+        transactionDirectories.clear();
+        try {
+            for (QueuedFile queuedFile : files) {
+                File file = queuedFile.file;
+                if (queuedFile.directory) {
+                    getDirectory(rootDirectory.toPath().relativize(file.toPath()).toString(), transaction);
+                    continue;
+                }
+                Content parent = getDirectory(rootDirectory.toPath().relativize(file.getParentFile().toPath()).toString(), transaction);
+                LocalFile localFile = caseDb.addLocalFile(file.getName(), file.getAbsolutePath(), file.length(),
+                        0, 0, 0, file.lastModified() / 1000, true, TskData.EncodingType.NONE, parent, transaction);
+                fileIds.add(localFile.getId());
+            }
+            transaction.commit();
+        } catch (TskCoreException ex) {
+            transaction.rollback();
+            directories.keySet().removeAll(transactionDirectories);
+            throw ex;
+        }
+        ingestStream.addFiles(fileIds);
+        addedFiles += fileIds.size();
+    }
+
+    /**
+     * @param relativePath Path of the folder relative to the extract
+     * directory.
+     * @return Local directory of the data source, created if needed.
+     */
+    private Content getDirectory(String relativePath, SleuthkitCase.CaseDbTransaction transaction) throws TskCoreException {
+        Content directory = directories.get(relativePath);
+        if (directory != null) {
+            return directory;
+        }
+
+        File path = new File(relativePath);
+        String parentPath = path.getParent() != null ? path.getParent() : "";
+        Content parent = getDirectory(parentPath, transaction);
+        directory = caseDb.addLocalDirectory(parent.getId(), path.getName(), transaction);
+        directories.put(relativePath, directory);
+        transactionDirectories.add(relativePath);
+        return directory;
+    }
+
+    /**
+     * Extracted file or created directory waiting to be added.
+     */
+    private static final class QueuedFile {
+
+        private final File file;
+        private final boolean directory;
+
+        private QueuedFile(File file, boolean directory) {
+            this.file = file;
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.logging.Level;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+
+/**
+ * Registry of the output paths assigned to extracted files, used instead of
+ * checking the files on the disk. Each path is owned by one backup file, the
+ * file with already used path gets the name with its fileID appended, so the
+ * names are the same in every extraction of the backup. Paths of directories
+ * are registered too, so the file doesn't get the path of a directory. On
+ * case-insensitive
+ * file systems the paths are compared case-insensitively and in the same
+ * Unicode normalization form. Paths are assigned by the thread reading the
+ * files from Manifest.db in the cursor order, so the file with the lowest
+ * fileID keeps its path regardless of the order in which the workers write
+ * the files. Owners of the paths of large backups are spilled to temporary
+ * files, see {@link SpillMap}.
+ */
+public class OutputPathRegistry implements Closeable {
+
+    private static final String DIRECTORY_OWNER = "/";
+    private final SpillMap owners;
+    private final boolean caseInsensitive;
+    private final char separator;
+
+    /**
+     * Main constructor.
+     *
+     * @param caseInsensitive True if the target file system doesn't
+     * distinguish names differing only in case.
+     * @param separator Separator of the path components, "/" in ZIP archive.
+     * @param tempDirectory Directory of the temporary files.
+     */
+    public OutputPathRegistry(boolean caseInsensitive, char separator, File tempDirectory) {
+        this.owners = new SpillMap(tempDirectory);
+        this.caseInsensitive = caseInsensitive;
+        this.separator = separator;
+    }
+
+    /**
+     * Assigns unique path to the file. The file gets the requested path if it
+     * is free or already owned by the file. Parent directories of the path
+     * are registered.
+     *
+     * @param path Requested relative path of the file.
+     * @param fileID FileID of the backup file.
+     * @return Assigned relative path.
+     */
+    public String assign(String path, String fileID) {
+        int parentEnd = path.lastIndexOf(separator);
+        if (parentEnd > 0) {
+            registerDirectory(path.substring(0, parentEnd));
+        }
+        if (isOwner(path, fileID)) {
+            return path;
+        }
+        String uniquePath = path + "_Id." + fileID;
+        String candidate = uniquePath;
+        for (int i = 1; !isOwner(candidate, fileID); i++) {
+            candidate = uniquePath + "." + i;
+        }
+        return candidate;
+    }
+
+    /**
+     * Registers the directory and its parent directories.
+     *
+     * @param path Relative path of the directory.
+     */
+    public void registerDirectory(String path) {
+        for (int end = path.length(); end > 0; end = path.lastIndexOf(separator, end - 1)) {
+            if (owners.putIfAbsent(fold(path.substring(0, end)), DIRECTORY_OWNER) != null) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Checks case sensitivity of the file system with a temporary file.
+     *
+     * @param directory Directory on the file system.
+     * @return True if the file system is case-insensitive.
+     */
+    public static boolean isCaseInsensitive(File directory) {
+        try {
+            File probe = File.createTempFile("CaseProbe", ".tmp", directory);
+            try {
+                return new File(directory, probe.getName().toLowerCase(Locale.ROOT)).exists();
+            } finally {
+                probe.delete();
+            }
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "Can't check case sensitivity of " + directory.getAbsolutePath() + " :" + ex);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the temporary files of the registry.
+     */
+    @Override
+    public void close() {
+        owners.close();
+    }
+
+    private boolean isOwner(String path, String fileID) {
+        String owner = owners.putIfAbsent(fold(path), fileID);
+        return owner == null || owner.equals(fileID);
+    }
+
+    private String fold(String path) {
+        if (!caseInsensitive) {
+            return path;
+        }
+        return Normalizer.normalize(path, Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,1188 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import org.gbies.iosbackupextractor.BackupFile;
+import org.gbies.iosbackupextractor.BackupReadException;
+import org.gbies.iosbackupextractor.NotUnlockedException;
+import org.gbies.iosbackupextractor.UnsupportedCryptoException;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+
+/**
+ * Writes ZIP archive with entries decrypted and compressed in parallel by
+ * worker threads. Compressed entries (with precomputed CRC and sizes) are
+ * committed to the archive in the order in which they were added, so the
+ * output is always the same for the same input. ZIP64 records are written
+ * when the archive exceeds the limits of the classic ZIP format. Written
+ * entries are recorded in the extraction journal, so the archive of the
+ * interrupted extraction can be reopened and continued. With deduplication,
+ * only the first entry with the content is written, later entries with the
+ * same content are listed with the name of the first entry in the
+ * {@value #DEDUPLICATION_REFERENCES} entry. Content of the entry with the
+ * size of an earlier entry is hashed before compression, the entry found to
+ * be a duplicate of an earlier entry is not compressed. Deduplicated entries
+ * are recorded in the journal with {@value #REFERENCE_LOCATION} and the offset
+ * of the first entry as the location, so they are listed again when the
+ * archive is reopened. The central directory is spilled to temporary file and
+ * the deduplication indexes to {@link SpillMap}, so the memory used doesn't
+ * grow with the number of entries. Names of the entries are not checked, they
+ * are made unique by {@link OutputPathRegistry}.
+ */
+public class ParallelZipWriter implements Closeable {
+
+    public static final String DEDUPLICATION_REFERENCES = "deduplicated_entries.tsv";
+    public static final String REFERENCE_LOCATION = "=";
+    private static final int SPILL_THRESHOLD = 1024 * 1024;
+    private static final int BUFFER_SIZE = 65536;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private final File zipFile;
+    private final File tempDirectory;
+    private final CountingOutputStream out;
+    private final SpillOutputStream centralDirectory;
+    private final ExtractionWorkerPool workerPool;
+    private final Deque<Future<CompressedEntry>> pendingEntries;
+    private final int maxPendingEntries;
+    private final CompressionPolicy compressionPolicy;
+    private final int compressionLevel;
+    private final ExtractionProgressTracker progress;
+    private final ExtractionJournal journal;
+    private ExtractionJournal previousJournal;
+    private FileChannel previousArchive;
+    private final AtomicLong reusedEntries = new AtomicLong();
+    private final AtomicLong failedEntries = new AtomicLong();
+    private boolean deduplication;
+    private boolean fingerprints;
+    private HashManifest hashManifest;
+    private ExtractionMetrics.Phase metrics;
+    private final SpillMap contentEntries;
+    private final SpillMap entrySizes;
+    private final SpillMap firstSequences;
+    private long sequence;
+    private FileChannel archiveReader;
+    private SpillOutputStream referencesData;
+    private EntryOutputStream references;
+    private long duplicateEntries;
+    private final long dosTime;
+    private long entryCount;
+    private boolean closed;
+
+    /**
+     * Main constructor.
+     *
+     * @param zipFile ZIP archive file to be created.
+     * @param workerCount Number of worker threads compressing entries.
+     * @param compressionPolicy Policy deciding which entries are compressed.
+     * @param compressionLevel Deflate level of compressed entries without own
+     * level of the compression policy.
+     * @param progress Tracker counting extracted bytes and files, may be null.
+     * @throws IOException
+     */
+    public ParallelZipWriter(File zipFile, int workerCount, CompressionPolicy compressionPolicy, int compressionLevel, ExtractionProgressTracker progress) throws IOException {
+        this(zipFile, workerCount, compressionPolicy, compressionLevel, progress, null);
+    }
+
+    /**
+     * @param zipFile ZIP archive file to be created or, if the journal has
+     * records, reopened.
+     * @param workerCount Number of worker threads compressing entries.
+     * @param compressionPolicy Policy deciding which entries are compressed.
+     * @param compressionLevel Deflate level of compressed entries without own
+     * level of the compression policy.
+     * @param progress Tracker counting extracted bytes and files, may be null.
+     * @param journal Journal recording written entries, may be null.
+     * @throws IOException
+     */
+    public ParallelZipWriter(File zipFile, int workerCount, CompressionPolicy compressionPolicy, int compressionLevel, ExtractionProgressTracker progress, ExtractionJournal journal) throws IOException {
+        this.zipFile = zipFile;
+        this.tempDirectory = zipFile.getAbsoluteFile().getParentFile();
+        this.centralDirectory = new SpillOutputStream(tempDirectory);
+        this.contentEntries = new SpillMap(tempDirectory);
+        this.entrySizes = new SpillMap(tempDirectory);
+        this.firstSequences = new SpillMap(tempDirectory);
+        this.compressionPolicy = compressionPolicy;
+        this.compressionLevel = compressionLevel;
+        this.progress = progress;
+        this.journal = journal;
+
+        long validLength = 0;
+        long time = javaToDosTime(System.currentTimeMillis());
+        if (journal != null && journal.size() > 0 && zipFile.length() > 0) {
+            CompressedEntry lastEntry = readValidEntries(zipFile, journal);
+            if (lastEntry != null) {
+                validLength = lastEntry.offset + lastEntry.headerLength + lastEntry.compressedSize;
+                time = lastEntry.time;
+            }
+            final long validEnd = validLength;
+            journal.retainLocations(new Predicate<String>() {
+                @Override
+                public boolean test(String location) {
+                    return isKeptLocation(location, validEnd);
+                }
+            });
+            try (FileChannel channel = FileChannel.open(zipFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+            logger.log(Level.INFO, "ZIP archive " + zipFile.getName() + " reopened with " + entryCount + " entries");
+        }
+
+        this.dosTime = time;
+        this.out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile, validLength > 0), BUFFER_SIZE), validLength);
+        this.workerPool = new ExtractionWorkerPool(workerCount);
+        this.pendingEntries = new ArrayDeque<>();
+        this.maxPendingEntries = Math.max(1, workerCount) * 2;
+    }
+
+    /**
+     * Enables incremental extraction. Content of the files not changed since
+     * the previous extraction is copied from the previous archive without
+     * decryption and compression.
+     *
+     * @param previousZipFile ZIP archive of the previous extraction.
+     * @param previousJournal Journal of the previous extraction.
+     * @throws IOException
+     */
+    public void setPreviousExtraction(File previousZipFile, ExtractionJournal previousJournal) throws IOException {
+        this.previousArchive = FileChannel.open(previousZipFile.toPath(), StandardOpenOption.READ);
+        this.previousJournal = previousJournal;
+    }
+
+    /**
+     * @param deduplication True if entries with content already written to
+     * the archive are to be replaced with references.
+     */
+    public void setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+    }
+
+    /**
+     * @param fingerprints True if fingerprints of the backup files are to be
+     * recorded in the journal for later incremental extraction.
+     */
+    public void setFingerprints(boolean fingerprints) {
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * @param hashManifest Manifest listing digests of the entries computed
+     * while they are compressed, may be null.
+     */
+    public void setHashManifest(HashManifest hashManifest) {
+        this.hashManifest = hashManifest;
+    }
+
+    /**
+     * @param metrics Phase recording time of each compressed entry and
+     * errors, may be null.
+     */
+    public void setMetrics(ExtractionMetrics.Phase metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return Number of entries whose content could not be read from the
+     * backup. The entries are written with the content read before the error
+     * and are not recorded in the journal or the hash manifest.
+     */
+    public long getFailedEntries() {
+        return failedEntries.get();
+    }
+
+    /**
+     * Adds entry to the archive. The entry is compressed by one of the workers
+     * and written when all previously added entries have been written.
+     *
+     * @param name Name of the entry, directory names end with "/".
+     * @param backupFile BackupFile with the content of the entry or null for
+     * entry without content.
+     * @throws IOException, InterruptedException
+     */
+    public void addEntry(String name, BackupFile backupFile) throws IOException, InterruptedException {
+        addEntry(name, backupFile, null);
+    }
+
+    /**
+     * Adds entry to the archive and records it in the journal when written.
+     *
+     * @param name Unique name of the entry, directory names end with "/".
+     * @param backupFile BackupFile with the content of the entry or null for
+     * entry without content.
+     * @param fileID FileID recorded in the journal or null.
+     * @throws IOException, InterruptedException
+     */
+    public void addEntry(final String name, final BackupFile backupFile, final String fileID) throws IOException, InterruptedException {
+        if (closed) {
+            throw new IOException("ZIP archive " + zipFile.getName() + " is closed");
+        }
+        final long entrySequence = sequence++;
+        final boolean hashFirst = deduplication && backupFile != null && backupFile.getSize() > 0
+                && entrySizes.putIfAbsent(Long.toString(backupFile.getSize()), "") != null;
+
+        pendingEntries.add(workerPool.submit(new Callable<CompressedEntry>() {
+            @Override
+            public CompressedEntry call() throws IOException {
+                CompressedEntry entry = compressEntry(name, backupFile, entrySequence, hashFirst);
+                entry.fileID = fileID;
+                entry.backupFile = backupFile;
+                return entry;
+            }
+        }));
+
+        while (pendingEntries.size() >= maxPendingEntries) {
+            writeEntry(pendingEntries.poll());
+        }
+    }
+
+    /**
+     * Lists the entry deduplicated by the interrupted extraction in the
+     * references again. Entries written by the interrupted extraction are
+     * already in the reopened archive.
+     *
+     * @param name Name of the entry.
+     * @param record Journal record of the entry.
+     * @throws IOException
+     */
+    public void addRecordedEntry(String name, ExtractionJournal.Record record) throws IOException {
+        if (!record.getLocation().startsWith(REFERENCE_LOCATION)) {
+            return;
+        }
+        if (archiveReader == null) {
+            archiveReader = FileChannel.open(zipFile.toPath(), StandardOpenOption.READ);
+        }
+        CompressedEntry firstEntry;
+        try {
+            firstEntry = readEntryHeader(archiveReader, Long.parseLong(record.getLocation().substring(REFERENCE_LOCATION.length())));
+        } catch (NumberFormatException ex) {
+            firstEntry = null;
+        }
+        if (firstEntry == null) {
+            logger.log(Level.WARNING, "Entry with the same content as " + name + " not found in " + zipFile.getName());
+            return;
+        }
+        writeReference(name, new String(firstEntry.name, StandardCharsets.UTF_8), record.getDigest());
+    }
+
+    /**
+     * Writes remaining entries and central directory, closes the archive. If
+     * the extraction has been cancelled, entries not yet written are
+     * discarded, so the archive contains only complete entries.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            while (!pendingEntries.isEmpty()) {
+                if (progress != null && progress.isCancelled()) {
+                    discardEntry(pendingEntries.poll());
+                } else {
+                    writeEntry(pendingEntries.poll());
+                }
+            }
+            workerPool.awaitCompletion();
+            writeReferences();
+            writeEndOfCentralDirectory();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Writing ZIP archive " + zipFile.getName() + " interrupted", ex);
+        } finally {
+            out.close();
+            centralDirectory.delete();
+            contentEntries.close();
+            entrySizes.close();
+            firstSequences.close();
+            if (archiveReader != null) {
+                archiveReader.close();
+            }
+            if (previousArchive != null) {
+                previousArchive.close();
+                logger.log(Level.INFO, reusedEntries.get() + " unchanged entries copied from the previous archive");
+            }
+        }
+    }
+
+    /**
+     * Compresses content of the entry to memory or, for large entries, to
+     * temporary file. Entries recognized by the compression policy as already
+     * compressed are stored.
+     *
+     * @param entrySequence Sequence number of the entry in the archive.
+     * @param hashFirst True if the content is to be hashed before compression
+     * to find duplicate of an earlier entry.
+     */
+    private CompressedEntry compressEntry(String name, BackupFile backupFile, long entrySequence, boolean hashFirst) throws IOException {
+        CompressedEntry entry = new CompressedEntry(name);
+        entry.sequence = entrySequence;
+        if (backupFile == null) {
+            return entry;
+        }
+
+        if (fingerprints || previousJournal != null) {
+            entry.fingerprint = FileFingerprint.of(backupFile);
+            if (reusePreviousEntry(entry, backupFile)) {
+                return entry;
+            }
+        }
+        if (hashFirst && hashDuplicate(entry, backupFile)) {
+            return entry;
+        }
+
+        ExtractionMetrics.FileTimer fileTimer = metrics != null ? metrics.startFile() : null;
+        SpillOutputStream entryData = new SpillOutputStream(tempDirectory);
+        EntryOutputStream plainData = new EntryOutputStream(name, entryData);
+
+        try {
+            try {
+                FileExtractor fileExtractor = new FileExtractor(backupFile, true, progress);
+                if (deduplication) {
+                    fileExtractor.addDigestAlgorithm(DeduplicationIndex.DIGEST_ALGORITHM);
+                }
+                if (hashManifest != null) {
+                    for (String algorithm : hashManifest.getAlgorithms()) {
+                        fileExtractor.addDigestAlgorithm(algorithm);
+                    }
+                }
+                fileExtractor.addToArchive(plainData);
+                entry.digests = fileExtractor.getDigests();
+                entry.digest = entry.digests.get(DeduplicationIndex.DIGEST_ALGORITHM);
+            } catch (InterruptedIOException ex) {
+                throw ex;
+            } catch (BackupReadException | NotUnlockedException | UnsupportedCryptoException | NoSuchAlgorithmException | IOException ex) {
+                logger.log(Level.WARNING, "Can't add backup file " + backupFile.relativePath + " to archive: " + ex);
+                if (metrics != null) {
+                    metrics.recordError(ex);
+                }
+                failedEntries.incrementAndGet();
+                entry.failed = true;
+                entry.digest = null;
+                entry.digests = null;
+            }
+            plainData.close();
+        } catch (IOException ex) {
+            entryData.delete();
+            throw ex;
+        } finally {
+            plainData.end();
+        }
+
+        entry.method = plainData.getMethod();
+        entry.crc = plainData.getCrc();
+        entry.size = plainData.getCount();
+        entry.compressedSize = entryData.getCount();
+        entry.data = entryData;
+        if (fileTimer != null) {
+            fileTimer.end(entry.size);
+        }
+        if (deduplication && entry.digest != null) {
+            isDuplicate(entry.digest + ":" + entry.size, entrySequence);
+        }
+        return entry;
+    }
+
+    /**
+     * Computes digests of the entry content without compressing it.
+     *
+     * @return True if the content is the same as the content of an earlier
+     * entry, the entry is then not compressed.
+     */
+    private boolean hashDuplicate(CompressedEntry entry, BackupFile backupFile) throws IOException {
+        FileExtractor fileExtractor = new FileExtractor(backupFile, true, progress);
+        long size;
+        try {
+            fileExtractor.addDigestAlgorithm(DeduplicationIndex.DIGEST_ALGORITHM);
+            if (hashManifest != null) {
+                for (String algorithm : hashManifest.getAlgorithms()) {
+                    fileExtractor.addDigestAlgorithm(algorithm);
+                }
+            }
+            size = fileExtractor.computeDigests();
+        } catch (InterruptedIOException ex) {
+            throw ex;
+        } catch (BackupReadException | NotUnlockedException | UnsupportedCryptoException | NoSuchAlgorithmException | IOException ex) {
+            return false;
+        }
+
+        String digest = fileExtractor.getDigest(DeduplicationIndex.DIGEST_ALGORITHM);
+        if (size == 0 || !isDuplicate(digest + ":" + size, entry.sequence)) {
+            return false;
+        }
+        entry.digest = digest;
+        entry.digests = fileExtractor.getDigests();
+        entry.size = size;
+        entry.duplicate = true;
+        return true;
+    }
+
+    /**
+     * Registers the content of the entry with the lowest sequence number.
+     *
+     * @param key Digest and size of the content.
+     * @param entrySequence Sequence number of the entry.
+     * @return True if an earlier entry has the same content.
+     */
+    private boolean isDuplicate(String key, long entrySequence) {
+        synchronized (firstSequences) {
+            String firstSequence = firstSequences.get(key);
+            if (firstSequence == null || Long.parseLong(firstSequence) > entrySequence) {
+                firstSequences.put(key, Long.toString(entrySequence));
+                return false;
+            }
+            return Long.parseLong(firstSequence) < entrySequence;
+        }
+    }
+
+    /**
+     * Takes method, sizes and CRC of the unchanged file from the local file
+     * header of the previous archive, the data is copied when the entry is
+     * written.
+     *
+     * @return True if the entry of the previous extraction can be reused.
+     */
+    private boolean reusePreviousEntry(CompressedEntry entry, BackupFile backupFile) throws IOException {
+        if (previousJournal == null || entry.fingerprint == null) {
+            return false;
+        }
+        ExtractionJournal.Record record = previousJournal.getRecord(backupFile.fileID);
+        if (record == null || !entry.fingerprint.equals(record.getFingerprint())) {
+            return false;
+        }
+
+        CompressedEntry previousEntry;
+        try {
+            previousEntry = readEntryHeader(previousArchive, Long.parseLong(record.getLocation()));
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+        if (previousEntry == null || previousEntry.size != record.getSize()) {
+            return false;
+        }
+
+        entry.method = previousEntry.method;
+        entry.crc = previousEntry.crc;
+        entry.size = previousEntry.size;
+        entry.compressedSize = previousEntry.compressedSize;
+        entry.previousDataOffset = previousEntry.offset + previousEntry.headerLength;
+        reusedEntries.incrementAndGet();
+        if (progress != null) {
+            progress.addSkippedBytes(entry.size);
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the entry to be compressed and writes it to the archive.
+     */
+    private void writeEntry(Future<CompressedEntry> futureEntry) throws IOException, InterruptedException {
+        CompressedEntry entry;
+        try {
+            entry = futureEntry.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+
+        if (deduplication && entry.digest != null && entry.size > 0 && addReference(entry)) {
+            if (entry.data != null) {
+                entry.data.delete();
+            } else if (progress != null) {
+                progress.addSkippedBytes(entry.size);
+            }
+            if (progress != null) {
+                progress.addFile();
+            }
+        } else {
+            if (entry.duplicate) {
+                entry = compressDuplicate(entry);
+            }
+            writeCompressedEntry(entry);
+            if (deduplication && entry.digest != null && entry.size > 0) {
+                contentEntries.put(entry.digest + ":" + entry.size, entry.offset + ":" + new String(entry.name, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Compresses the entry found to be a duplicate whose first entry could
+     * not be written.
+     */
+    private CompressedEntry compressDuplicate(CompressedEntry duplicate) throws IOException {
+        CompressedEntry entry = compressEntry(new String(duplicate.name, StandardCharsets.UTF_8), duplicate.backupFile, duplicate.sequence, false);
+        entry.fileID = duplicate.fileID;
+        entry.backupFile = duplicate.backupFile;
+        return entry;
+    }
+
+    /**
+     * Lists the written entry in the hash manifest before it is recorded in
+     * the journal, digests of the entry copied from the previous archive are
+     * taken from the previous manifest.
+     */
+    private void recordHashes(CompressedEntry entry) throws IOException {
+        if (hashManifest == null || entry.backupFile == null || entry.failed) {
+            return;
+        }
+        if (entry.digests != null) {
+            hashManifest.record(entry.backupFile, entry.size, entry.digests);
+        } else {
+            hashManifest.recordKnown(entry.backupFile, entry.size);
+        }
+    }
+
+    private void writeCompressedEntry(CompressedEntry entry) throws IOException {
+        try {
+            writeLocalFileHeader(entry);
+            if (entry.data != null) {
+                entry.data.writeTo(out);
+            } else if (entry.previousDataOffset >= 0) {
+                copyPreviousData(entry);
+            }
+            writeCentralDirectoryHeader(entry, dosTime);
+            entryCount++;
+            recordHashes(entry);
+            if (journal != null && entry.fileID != null && !entry.failed) {
+                journal.record(entry.fileID, entry.size, entry.digest, entry.fingerprint, Long.toString(entry.offset));
+            }
+            if (progress != null) {
+                progress.addFile();
+            }
+        } finally {
+            if (entry.data != null) {
+                entry.data.delete();
+            }
+        }
+    }
+
+    /**
+     * Lists the entry in the references if the archive already contains entry
+     * with the same content. The deduplicated entry is recorded in the
+     * journal. Content entries are indexed with the offset and the name of
+     * the first entry separated by ":".
+     *
+     * @return True if the entry is a duplicate and is not to be written.
+     */
+    private boolean addReference(CompressedEntry entry) throws IOException {
+        String firstEntry = contentEntries.get(entry.digest + ":" + entry.size);
+        if (firstEntry == null) {
+            return false;
+        }
+
+        int separator = firstEntry.indexOf(':');
+        writeReference(new String(entry.name, StandardCharsets.UTF_8), firstEntry.substring(separator + 1), entry.digest);
+        recordHashes(entry);
+        if (journal != null && entry.fileID != null) {
+            journal.record(entry.fileID, entry.size, entry.digest, entry.fingerprint, REFERENCE_LOCATION + firstEntry.substring(0, separator));
+        }
+        return true;
+    }
+
+    private void writeReference(String name, String firstName, String digest) throws IOException {
+        if (references == null) {
+            referencesData = new SpillOutputStream(tempDirectory);
+            references = new EntryOutputStream(DEDUPLICATION_REFERENCES, referencesData);
+            references.write("entry\tsame content as\tsha256\n".getBytes(StandardCharsets.UTF_8));
+        }
+        references.write((name + "\t" + firstName + "\t" + digest + "\n").getBytes(StandardCharsets.UTF_8));
+        duplicateEntries++;
+    }
+
+    /**
+     * Writes the references of deduplicated entries as the last entry.
+     */
+    private void writeReferences() throws IOException {
+        if (references == null) {
+            return;
+        }
+        CompressedEntry entry = new CompressedEntry(DEDUPLICATION_REFERENCES);
+        try {
+            references.close();
+        } finally {
+            references.end();
+        }
+        entry.method = references.getMethod();
+        entry.crc = references.getCrc();
+        entry.size = references.getCount();
+        entry.compressedSize = referencesData.getCount();
+        entry.data = referencesData;
+        writeCompressedEntry(entry);
+        logger.log(Level.INFO, duplicateEntries + " duplicate entries listed in " + DEDUPLICATION_REFERENCES);
+    }
+
+    /**
+     * Waits for the entry to be compressed and deletes its data without
+     * writing it to the archive.
+     */
+    private void discardEntry(Future<CompressedEntry> futureEntry) throws InterruptedException {
+        try {
+            CompressedEntry entry = futureEntry.get();
+            if (entry.data != null) {
+                entry.data.delete();
+            }
+        } catch (ExecutionException ex) {
+            logger.log(Level.FINE, "Entry discarded: " + ex.getCause());
+        }
+    }
+
+    private void copyPreviousData(CompressedEntry entry) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long position = entry.previousDataOffset;
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            long transferred = previousArchive.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new IOException("Previous ZIP archive truncated");
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    private void writeLocalFileHeader(CompressedEntry entry) throws IOException {
+        boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+        entry.offset = out.getCount();
+
+        writeInt(out, ZipConstants.LOCSIG);
+        writeShort(out, zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(out, UTF8_FLAG);
+        writeShort(out, entry.method);
+        writeInt(out, dosTime);
+        writeInt(out, entry.crc);
+        writeInt(out, zip64 ? ZIP64_MAGIC : entry.compressedSize);
+        writeInt(out, zip64 ? ZIP64_MAGIC : entry.size);
+        writeShort(out, entry.name.length);
+        writeShort(out, zip64 ? 20 : 0);
+        out.write(entry.name);
+        if (zip64) {
+            writeShort(out, ZipConstants.ZIP64_EXTID);
+            writeShort(out, 16);
+            writeLong(out, entry.size);
+            writeLong(out, entry.compressedSize);
+        }
+    }
+
+    /**
+     * Writes the central directory header of the entry, the header is built
+     * in memory and written to the spilled central directory at once.
+     */
+    private void writeCentralDirectoryHeader(CompressedEntry entry, long time) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(46 + entry.name.length + 28);
+        boolean zip64Size = entry.size >= ZIP64_MAGIC;
+        boolean zip64CompressedSize = entry.compressedSize >= ZIP64_MAGIC;
+        boolean zip64Offset = entry.offset >= ZIP64_MAGIC;
+        int extraLength = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+        boolean zip64 = extraLength > 0;
+        boolean directory = entry.isDirectory();
+
+        writeInt(header, ZipConstants.CENSIG);
+        writeShort(header, zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(header, zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(header, UTF8_FLAG);
+        writeShort(header, entry.method);
+        writeInt(header, time);
+        writeInt(header, entry.crc);
+        writeInt(header, zip64CompressedSize ? ZIP64_MAGIC : entry.compressedSize);
+        writeInt(header, zip64Size ? ZIP64_MAGIC : entry.size);
+        writeShort(header, entry.name.length);
+        writeShort(header, zip64 ? extraLength + 4 : 0);
+        writeShort(header, 0);
+        writeShort(header, 0);
+        writeShort(header, 0);
+        writeInt(header, directory ? 0x10 : 0);
+        writeInt(header, zip64Offset ? ZIP64_MAGIC : entry.offset);
+        header.write(entry.name);
+        if (zip64) {
+            writeShort(header, ZipConstants.ZIP64_EXTID);
+            writeShort(header, extraLength);
+            if (zip64Size) {
+                writeLong(header, entry.size);
+            }
+            if (zip64CompressedSize) {
+                writeLong(header, entry.compressedSize);
+            }
+            if (zip64Offset) {
+                writeLong(header, entry.offset);
+            }
+        }
+        header.writeTo(centralDirectory);
+    }
+
+    private void writeEndOfCentralDirectory() throws IOException {
+        long centralDirectoryOffset = out.getCount();
+        long centralDirectorySize = centralDirectory.getCount();
+        centralDirectory.close();
+        centralDirectory.writeTo(out);
+
+        boolean zip64 = entryCount >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64EndOffset = out.getCount();
+
+            writeInt(out, ZipConstants.ZIP64_ENDSIG);
+            writeLong(out, 44);
+            writeShort(out, VERSION_ZIP64);
+            writeShort(out, VERSION_ZIP64);
+            writeInt(out, 0);
+            writeInt(out, 0);
+            writeLong(out, entryCount);
+            writeLong(out, entryCount);
+            writeLong(out, centralDirectorySize);
+            writeLong(out, centralDirectoryOffset);
+
+            writeInt(out, ZipConstants.ZIP64_LOCSIG);
+            writeInt(out, 0);
+            writeLong(out, zip64EndOffset);
+            writeInt(out, 1);
+        }
+
+        int count = (int) Math.min(entryCount, ZIP64_MAGIC_COUNT);
+        writeInt(out, ZipConstants.ENDSIG);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, count);
+        writeShort(out, count);
+        writeInt(out, Math.min(centralDirectorySize, ZIP64_MAGIC));
+        writeInt(out, Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+        writeShort(out, 0);
+    }
+
+    /**
+     * Reads local file headers of the interrupted archive and writes central
+     * directory headers of the entries to be kept. Only complete entries
+     * recorded in the journal are kept, reading stops at the first entry
+     * which is truncated, damaged or not recorded.
+     *
+     * @param zipFile ZIP archive of the interrupted extraction.
+     * @param journal Journal recording offsets of the written entries.
+     * @return The last entry to be kept in the archive or null.
+     */
+    private CompressedEntry readValidEntries(File zipFile, ExtractionJournal journal) throws IOException {
+        CompressedEntry lastEntry = null;
+
+        try (FileChannel channel = FileChannel.open(zipFile.toPath(), StandardOpenOption.READ)) {
+            long offset = 0;
+            CompressedEntry entry;
+            while (journal.isRecordedLocation(Long.toString(offset)) && (entry = readEntryHeader(channel, offset)) != null) {
+                writeCentralDirectoryHeader(entry, entry.time);
+                entryCount++;
+                lastEntry = entry;
+                offset += entry.headerLength + entry.compressedSize;
+            }
+        }
+        return lastEntry;
+    }
+
+    /**
+     * @param location Location recorded in the journal.
+     * @param validLength Length of the valid part of the reopened archive.
+     * @return True if the location is the offset of an entry kept in the
+     * archive or a reference to it.
+     */
+    private static boolean isKeptLocation(String location, long validLength) {
+        String offset = location.startsWith(REFERENCE_LOCATION) ? location.substring(REFERENCE_LOCATION.length()) : location;
+        try {
+            return Long.parseLong(offset) < validLength;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads local file header of the entry.
+     *
+     * @param channel Channel of the ZIP archive.
+     * @param offset Offset of the local file header.
+     * @return Entry with sizes, CRC and offset or null if there is no complete
+     * entry at the offset.
+     */
+    private static CompressedEntry readEntryHeader(FileChannel channel, long offset) throws IOException {
+        long length = channel.size();
+        byte[] header = new byte[30];
+        if (offset < 0 || !readFully(channel, header, offset) || readInt(header, 0) != ZipConstants.LOCSIG) {
+            return null;
+        }
+
+        int nameLength = readShort(header, 26);
+        int extraLength = readShort(header, 28);
+        byte[] name = new byte[nameLength];
+        byte[] extra = new byte[extraLength];
+        if (!readFully(channel, name, offset + header.length) || !readFully(channel, extra, offset + header.length + nameLength)) {
+            return null;
+        }
+
+        CompressedEntry entry = new CompressedEntry(name);
+        entry.method = readShort(header, 8);
+        entry.time = readInt(header, 10);
+        entry.crc = readInt(header, 14);
+        entry.compressedSize = readInt(header, 18);
+        entry.size = readInt(header, 22);
+        if (extraLength >= 20 && readShort(extra, 0) == ZipConstants.ZIP64_EXTID) {
+            entry.size = readLong(extra, 4);
+            entry.compressedSize = readLong(extra, 12);
+        }
+        entry.offset = offset;
+        entry.headerLength = header.length + nameLength + extraLength;
+
+        if (offset + entry.headerLength + entry.compressedSize > length) {
+            return null;
+        }
+        return entry;
+    }
+
+    private static boolean readFully(FileChannel channel, byte[] b, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | ((b[offset + 1] & 0xFF) << 8);
+    }
+
+    private static long readInt(byte[] b, int offset) {
+        return readShort(b, offset) | ((long) readShort(b, offset + 2) << 16);
+    }
+
+    private static long readLong(byte[] b, int offset) {
+        return readInt(b, offset) | (readInt(b, offset + 4) << 32);
+    }
+
+    private static void writeShort(OutputStream stream, int value) throws IOException {
+        stream.write(value & 0xFF);
+        stream.write((value >>> 8) & 0xFF);
+    }
+
+    private static void writeInt(OutputStream stream, long value) throws IOException {
+        writeShort(stream, (int) (value & 0xFFFF));
+        writeShort(stream, (int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private static void writeLong(OutputStream stream, long value) throws IOException {
+        writeInt(stream, value & 0xFFFFFFFFL);
+        writeInt(stream, value >>> 32);
+    }
+
+    /**
+     * @return Time converted to MS-DOS date (high 16 bits) and time (low 16
+     * bits) format.
+     */
+    private static long javaToDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25)
+                | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    /**
+     * Signatures and identifiers of the ZIP file format.
+     */
+    private static final class ZipConstants {
+
+        static final int STORED = 0;
+        static final int DEFLATED = 8;
+        static final long LOCSIG = 0x04034b50L;
+        static final long CENSIG = 0x02014b50L;
+        static final long ENDSIG = 0x06054b50L;
+        static final long ZIP64_ENDSIG = 0x06064b50L;
+        static final long ZIP64_LOCSIG = 0x07064b50L;
+        static final int ZIP64_EXTID = 0x0001;
+    }
+
+    /**
+     * Compressed entry waiting to be written to the archive.
+     */
+    private static final class CompressedEntry {
+
+        final byte[] name;
+        String fileID;
+        long sequence;
+        boolean duplicate;
+        boolean failed;
+        String fingerprint;
+        String digest;
+        Map<String, String> digests;
+        BackupFile backupFile;
+        long previousDataOffset = -1;
+        int method = ZipConstants.STORED;
+        long time;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+        int headerLength;
+        SpillOutputStream data;
+
+        CompressedEntry(String name) {
+            this(name.getBytes(StandardCharsets.UTF_8));
+        }
+
+        CompressedEntry(byte[] name) {
+            this.name = name;
+        }
+
+        boolean isDirectory() {
+            return name.length > 0 && name[name.length - 1] == '/';
+        }
+    }
+
+    /**
+     * Stream counting written bytes.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out, long count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Stream of the entry plain content. Counts written bytes, computes their
+     * CRC-32 and, after the first bytes are known, passes them to the entry
+     * data compressed or not, depending on the compression policy.
+     */
+    private class EntryOutputStream extends OutputStream {
+
+        private final String name;
+        private final OutputStream data;
+        private final CRC32 crc = new CRC32();
+        private final byte[] header = new byte[CompressionPolicy.HEADER_LENGTH];
+        private int headerLength;
+        private long count;
+        private OutputStream target;
+        private Deflater deflater;
+        private int method;
+
+        EntryOutputStream(String name, OutputStream data) {
+            this.name = name;
+            this.data = data;
+            if (!compressionPolicy.needsHeader()) {
+                selectTarget();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            crc.update(b, off, len);
+            count += len;
+
+            if (target == null) {
+                int headerPart = Math.min(len, header.length - headerLength);
+                System.arraycopy(b, off, header, headerLength, headerPart);
+                headerLength += headerPart;
+                if (headerLength < header.length) {
+                    return;
+                }
+                selectTarget();
+                target.write(header, 0, headerLength);
+                off += headerPart;
+                len -= headerPart;
+            }
+            if (len > 0) {
+                target.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (target == null) {
+                selectTarget();
+                target.write(header, 0, headerLength);
+            }
+            target.close();
+        }
+
+        private void selectTarget() {
+            int level = compressionPolicy.getLevel(name, header, headerLength, compressionLevel);
+            if (level != Deflater.NO_COMPRESSION) {
+                deflater = new Deflater(level, true);
+                target = new DeflaterOutputStream(data, deflater, BUFFER_SIZE);
+                method = ZipConstants.DEFLATED;
+            } else {
+                target = data;
+                method = ZipConstants.STORED;
+            }
+        }
+
+        void end() {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        int getMethod() {
+            return method;
+        }
+
+        long getCrc() {
+            return crc.getValue();
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Stream keeping data in memory until it exceeds the spill threshold and
+     * then moving it to temporary file.
+     */
+    private static class SpillOutputStream extends OutputStream {
+
+        private final File directory;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File tempFile;
+        private OutputStream fileStream;
+        private long count;
+
+        SpillOutputStream(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileStream == null && memory.size() + len > SPILL_THRESHOLD) {
+                tempFile = File.createTempFile("zipentry", ".tmp", directory);
+                fileStream = new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE);
+                memory.writeTo(fileStream);
+                memory = null;
+            }
+            if (fileStream != null) {
+                fileStream.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileStream != null) {
+                fileStream.close();
+            }
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        void writeTo(OutputStream stream) throws IOException {
+            if (tempFile != null) {
+                Files.copy(tempFile.toPath(), stream);
+            } else {
+                memory.writeTo(stream);
+            }
+        }
+
+        void delete() {
+            if (tempFile != null) {
+                try {
+                    close();
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Can't close temporary file " + tempFile.getAbsolutePath() + ": " + ex);
+                }
+                if (!tempFile.delete()) {
+                    tempFile.deleteOnExit();
+                }
+            }
+            memory = null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+/**
+ * Receives progress of the backup password verification.
+ */
+public interface PasswordTrialListener {
+
+    /**
+     * Called from the verifying threads after each checked candidate, one
+     * call at a time.
+     *
+     * @param checked Number of checked candidates.
+     * @param total Number of all candidates.
+     * @param candidatesPerSecond Average rate of the verification.
+     */
+    void candidateChecked(int checked, int total, double candidatesPerSecond);
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Converts domain and relative path of the backup file to the path valid on
+ * the target platform in a single pass over the path. Illegal characters are
+ * replaced with underscore, reserved names get the "_(rename)" suffix,
+ * trailing dots and spaces are replaced, "." and ".." components are not
+ * followed and over-long components are truncated with a hash of the
+ * original, so different names stay different. The length of the whole path
+ * is not limited, directories keep their names so tools matching on the iOS
+ * path find the files. Each component is sanitized independently, so a
+ * directory gets the same path as the parent path of its files. The rules
+ * are prepared once per target.
+ */
+public class PathSanitizer {
+
+    private static final String RENAME_SUFFIX = "_(rename)";
+    private static final char REPLACEMENT = '_';
+    private static final Set<String> WINDOWS_RESERVED_NAMES = new HashSet<>(Arrays.asList(
+            "CON", "PRN", "AUX", "NUL", "COM1", "COM2", "COM3", "COM4", "COM5", "COM6",
+            "COM7", "COM8", "COM9", "LPT1", "LPT2", "LPT3", "LPT4", "LPT5", "LPT6", "LPT7", "LPT8", "LPT9"));
+    private static final int MAX_COMPONENT_LENGTH = 255;
+    private final boolean windows;
+    private final char separator;
+    private final boolean[] illegalCharacters = new boolean[128];
+
+    private PathSanitizer(boolean windows, char separator) {
+        this.windows = windows;
+        this.separator = separator;
+        for (char c = 0; c < 0x20; c++) {
+            illegalCharacters[c] = windows || c == 0;
+        }
+        if (windows) {
+            for (char c : "<>:\"|?*\\/".toCharArray()) {
+                illegalCharacters[c] = true;
+            }
+        } else {
+            illegalCharacters['/'] = true;
+        }
+    }
+
+    /**
+     * @return Sanitizer of the paths on the file system of this platform.
+     */
+    public static PathSanitizer forFileSystem() {
+        boolean windows = File.separatorChar == '\\';
+        return new PathSanitizer(windows, File.separatorChar);
+    }
+
+    /**
+     * @return Sanitizer of the entry names in ZIP archive, names use "/" and
+     * keep characters illegal on Windows.
+     */
+    public static PathSanitizer forZipArchive() {
+        return new PathSanitizer(false, '/');
+    }
+
+    /**
+     * @return Separator of the path components.
+     */
+    public char getSeparator() {
+        return separator;
+    }
+
+    /**
+     * Builds valid relative path of the backup file.
+     *
+     * @param domain Domain of the backup file.
+     * @param relativePath Path of the file in the domain.
+     * @return Relative path valid on the target.
+     */
+    public String sanitize(String domain, String relativePath) {
+        List<String> components = new ArrayList<>();
+        addComponents(domain, components);
+        addComponents(relativePath, components);
+        if (components.isEmpty()) {
+            components.add(String.valueOf(REPLACEMENT));
+        }
+
+        StringBuilder path = new StringBuilder();
+        for (String component : components) {
+            if (path.length() > 0) {
+                path.append(separator);
+            }
+            path.append(component);
+        }
+        return path.toString();
+    }
+
+    /**
+     * Splits the path at "/" and appends sanitized components.
+     */
+    private void addComponents(String path, List<String> components) {
+        if (path == null) {
+            return;
+        }
+        StringBuilder component = new StringBuilder();
+        for (int i = 0; i <= path.length(); i++) {
+            char c = i < path.length() ? path.charAt(i) : '/';
+            if (c == '/') {
+                String name = sanitizeComponent(component);
+                if (name != null) {
+                    components.add(name);
+                }
+                component.setLength(0);
+            } else {
+                component.append(c < illegalCharacters.length && illegalCharacters[c] ? REPLACEMENT : c);
+            }
+        }
+    }
+
+    /**
+     * @param component Component with illegal characters already replaced.
+     * @return Valid name or null if the component is to be skipped.
+     */
+    private String sanitizeComponent(StringBuilder component) {
+        int length = component.length();
+        if (length == 0 || (length == 1 && component.charAt(0) == '.')) {
+            return null;
+        }
+        if (length == 2 && component.charAt(0) == '.' && component.charAt(1) == '.') {
+            return "" + REPLACEMENT + REPLACEMENT;
+        }
+
+        if (windows) {
+            int last = length - 1;
+            while (last >= 0 && (component.charAt(last) == '.' || component.charAt(last) == ' ')) {
+                component.setCharAt(last--, REPLACEMENT);
+            }
+            int baseLength = component.indexOf(".");
+            baseLength = baseLength < 0 ? length : baseLength;
+            if ((baseLength == 3 || baseLength == 4)
+                    && WINDOWS_RESERVED_NAMES.contains(component.substring(0, baseLength).toUpperCase(Locale.ROOT))) {
+                component.insert(baseLength, RENAME_SUFFIX);
+            }
+        }
+
+        String name = component.toString();
+        return exceedsComponentLength(name) ? truncate(name, MAX_COMPONENT_LENGTH) : name;
+    }
+
+    private boolean exceedsComponentLength(String name) {
+        if (windows) {
+            return name.length() > MAX_COMPONENT_LENGTH;
+        }
+        return name.length() > MAX_COMPONENT_LENGTH / 3 && name.getBytes(StandardCharsets.UTF_8).length > MAX_COMPONENT_LENGTH;
+    }
+
+    /**
+     * Truncates the name keeping short extension, the hash of the whole name
+     * is appended.
+     */
+    private String truncate(String name, int maxLength) {
+        String hash = "~" + String.format("%08x", name.hashCode());
+        int dotIndex = name.lastIndexOf('.');
+        String extension = dotIndex > 0 && name.length() - dotIndex <= 16 ? name.substring(dotIndex) : "";
+        String base = name.substring(0, name.length() - extension.length());
+        int baseLength = Math.max(1, maxLength - hash.length() - extension.length());
+        String truncated;
+        do {
+            truncated = base.substring(0, Math.min(base.length(), baseLength)) + hash + extension;
+            baseLength -= Math.max(1, baseLength / 4);
+        } while (baseLength > 0 && (windows ? truncated.length() : truncated.getBytes(StandardCharsets.UTF_8).length) > maxLength);
+        return truncated;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+/**
+ * Result of the command executed by ProcessRunner.
+ */
+public class ProcessResult {
+
+    private final String command;
+    private final int exitCode;
+    private final boolean timedOut;
+
+    public ProcessResult(String command, int exitCode, boolean timedOut) {
+        this.command = command;
+        this.exitCode = exitCode;
+        this.timedOut = timedOut;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return Exit code of the process, -1 if the process was killed after
+     * timeout.
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return True if the process finished in time with exit code 0.
+     */
+    public boolean isSuccess() {
+        return !timedOut && exitCode == 0;
+    }
+
+    @Override
+    public String toString() {
+        return command + (timedOut ? " (timed out)" : " (exit code " + exitCode + ")");
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+
+/**
+ * Executes libimobiledevice commands asynchronously. Standard output and
+ * standard error of the process are pumped by separate threads, so the
+ * process never blocks on a full pipe. The process is killed when it runs
+ * longer than the timeout or does not write anything for longer than the
+ * idle timeout.
+ */
+public class ProcessRunner {
+
+    public static final long NO_TIMEOUT = 0;
+    private static final long CHECK_INTERVAL = 1000;
+    private final File commandPath;
+    private final Set<Process> runningProcesses = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Main constructor.
+     *
+     * @param commandPath The folder with the libimobiledevice executables or
+     * null if they are on the system path.
+     */
+    public ProcessRunner(File commandPath) {
+        this.commandPath = commandPath;
+    }
+
+    /**
+     * Starts the command.
+     *
+     * @param cmdArray The command array string to be executed.
+     * @param out Stream receiving standard output of the process, may be null.
+     * @param err Stream receiving standard error of the process, may be null.
+     * @param timeout Maximum execution time in milliseconds or NO_TIMEOUT.
+     * @param idleTimeout Maximum time in milliseconds without output or
+     * NO_TIMEOUT.
+     * @return Future completed with the result when the process ends,
+     * completed exceptionally with IOException if the process cannot start.
+     */
+    public CompletableFuture<ProcessResult> run(String[] cmdArray, OutputStream out, OutputStream err, final long timeout, final long idleTimeout) {
+        final CompletableFuture<ProcessResult> result = new CompletableFuture<>();
+        final String[] command = cmdArray.clone();
+        if (commandPath != null) {
+            command[0] = commandPath.getAbsolutePath() + File.separator + command[0];
+        }
+        final String commandName = cmdArray[0] + (cmdArray.length > 1 ? " " + cmdArray[1] : "");
+
+        final Process process;
+        try {
+            process = new ProcessBuilder(command).start();
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Can't execute command " + commandName + ": " + ex);
+            result.completeExceptionally(ex);
+            return result;
+        }
+
+        runningProcesses.add(process);
+        final StreamTransfer outReader = new StreamTransfer(process.getInputStream(), out);
+        final StreamTransfer errReader = new StreamTransfer(process.getErrorStream(), err);
+        outReader.start();
+        errReader.start();
+
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.currentTimeMillis();
+                boolean timedOut = false;
+
+                try {
+                    while (!process.waitFor(CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        long now = System.currentTimeMillis();
+                        long lastActivity = Math.max(outReader.getLastActivityTime(), errReader.getLastActivityTime());
+                        if ((timeout != NO_TIMEOUT && now - startTime > timeout)
+                                || (idleTimeout != NO_TIMEOUT && now - lastActivity > idleTimeout)) {
+                            logger.log(Level.SEVERE, "Command " + commandName + " timed out, killing process");
+                            timedOut = true;
+                            process.destroyForcibly();
+                            process.waitFor();
+                            break;
+                        }
+                    }
+                    outReader.join();
+                    errReader.join();
+                } catch (InterruptedException ex) {
+                    process.destroyForcibly();
+                    result.completeExceptionally(ex);
+                    return;
+                } finally {
+                    runningProcesses.remove(process);
+                }
+
+                ProcessResult processResult = new ProcessResult(commandName, timedOut ? -1 : process.exitValue(), timedOut);
+                if (!processResult.isSuccess()) {
+                    logger.log(Level.WARNING, "Command finished with problem: " + processResult);
+                }
+                result.complete(processResult);
+            }
+        }, "iOSDataExtractor-process-" + cmdArray[0]);
+        waiter.setDaemon(true);
+        waiter.start();
+
+        return result;
+    }
+
+    /**
+     * Kills all processes started by this runner which are still running.
+     * Futures of the killed processes are completed with their exit codes.
+     */
+    public void destroyAll() {
+        for (Process process : runningProcesses) {
+            logger.log(Level.WARNING, "Killing process " + process);
+            process.destroyForcibly();
+        }
+    }
+}
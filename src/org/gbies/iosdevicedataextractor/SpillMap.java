@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+
+/**
+ * Map of strings keeping entries in memory until their length exceeds the
+ * spill threshold and then moving them to temporary files, so the indexes of
+ * the extraction don't grow the heap with the number of backup files. The
+ * spilled map is an open addressing hash table of key hashes and offsets of
+ * the entries appended to the data file. Lookups of the spilled map read the
+ * files, mostly from the file system cache, replaced entries stay in the data
+ * file until the map is closed.
+ */
+public class SpillMap implements Closeable {
+
+    private static final long SPILL_THRESHOLD = 4 * 1024 * 1024;
+    private static final int SLOT_LENGTH = 16;
+    private static final int REHASH_SLOTS = 4096;
+    private static final int ENTRY_READ_LENGTH = 512;
+    private final File directory;
+    private Map<String, String> memory = new HashMap<>();
+    private long memoryLength;
+    private File dataFile;
+    private File tableFile;
+    private FileChannel data;
+    private FileChannel table;
+    private long capacity;
+    private long size;
+    private long dataLength;
+    private long foundSlot;
+
+    /**
+     * Main constructor.
+     *
+     * @param directory Directory of the temporary files, not added to the
+     * data source.
+     */
+    public SpillMap(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param key Key of the entry.
+     * @return Value of the entry or null.
+     * @throws UncheckedIOException if the spilled map can't be read.
+     */
+    public synchronized String get(String key) {
+        if (memory != null) {
+            return memory.get(key);
+        }
+        try {
+            return find(key, hash(key));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @param key Key of the entry.
+     * @param value Value of the entry.
+     * @return Previous value or null.
+     * @throws UncheckedIOException if the spilled map can't be written.
+     */
+    public synchronized String put(String key, String value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * @param key Key of the entry.
+     * @param value Value of the entry.
+     * @return Current value or null if the value has been added.
+     * @throws UncheckedIOException if the spilled map can't be written.
+     */
+    public synchronized String putIfAbsent(String key, String value) {
+        return put(key, value, false);
+    }
+
+    public synchronized long size() {
+        return memory != null ? memory.size() : size;
+    }
+
+    /**
+     * Deletes the temporary files.
+     */
+    @Override
+    public synchronized void close() {
+        memory = new HashMap<>();
+        memoryLength = 0;
+        size = 0;
+        dataLength = 0;
+        closeFile(data, dataFile);
+        closeFile(table, tableFile);
+        data = null;
+        table = null;
+    }
+
+    private String put(String key, String value, boolean replace) {
+        if (memory != null) {
+            String previous = replace ? memory.put(key, value) : memory.putIfAbsent(key, value);
+            if (previous == null) {
+                memoryLength += key.length() + value.length();
+            } else if (replace) {
+                memoryLength += value.length() - previous.length();
+            }
+            if (memoryLength > SPILL_THRESHOLD) {
+                spill();
+            }
+            return previous;
+        }
+        try {
+            long hash = hash(key);
+            String previous = find(key, hash);
+            if (previous != null) {
+                if (replace) {
+                    writeSlot(table, foundSlot, hash, append(key, value));
+                }
+                return previous;
+            }
+            long slot = foundSlot;
+            if ((size + 1) * 2 > capacity) {
+                rehash(capacity * 2);
+                slot = freeSlot(table, capacity, hash);
+            }
+            writeSlot(table, slot, hash, append(key, value));
+            size++;
+            return null;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Moves the entries from memory to the temporary files.
+     */
+    private void spill() {
+        try {
+            dataFile = File.createTempFile("spill", ".dat", directory);
+            data = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            tableFile = File.createTempFile("spill", ".idx", directory);
+            table = FileChannel.open(tableFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            capacity = Long.highestOneBit(memory.size()) * 4;
+            table.write(ByteBuffer.wrap(new byte[1]), capacity * SLOT_LENGTH - 1);
+            for (Map.Entry<String, String> entry : memory.entrySet()) {
+                long hash = hash(entry.getKey());
+                writeSlot(table, freeSlot(table, capacity, hash), hash, append(entry.getKey(), entry.getValue()));
+            }
+            size = memory.size();
+            memory = null;
+            logger.log(Level.FINE, size + " entries spilled to " + dataFile.getAbsolutePath());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Moves the slots to the new table with the given capacity, keys are not
+     * read as the slots keep their hashes.
+     */
+    private void rehash(long newCapacity) throws IOException {
+        File newTableFile = File.createTempFile("spill", ".idx", directory);
+        FileChannel newTable = FileChannel.open(newTableFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            newTable.write(ByteBuffer.wrap(new byte[1]), newCapacity * SLOT_LENGTH - 1);
+            ByteBuffer slots = ByteBuffer.allocate(REHASH_SLOTS * SLOT_LENGTH);
+            for (long position = 0; position < capacity * SLOT_LENGTH; position += slots.capacity()) {
+                slots.clear();
+                readFully(table, slots, position);
+                slots.flip();
+                while (slots.hasRemaining()) {
+                    long hash = slots.getLong();
+                    long offset = slots.getLong();
+                    if (offset != 0) {
+                        writeSlot(newTable, freeSlot(newTable, newCapacity, hash), hash, offset);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            closeFile(newTable, newTableFile);
+            throw ex;
+        }
+        closeFile(table, tableFile);
+        table = newTable;
+        tableFile = newTableFile;
+        capacity = newCapacity;
+    }
+
+    /**
+     * Probes the slots from the slot of the hash, the slot of the key or the
+     * free slot where the key belongs is kept in foundSlot.
+     *
+     * @return Value of the key or null if the key is not in the map.
+     */
+    private String find(String key, long hash) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_LENGTH);
+        for (long index = hash & (capacity - 1);; index = (index + 1) & (capacity - 1)) {
+            slot.clear();
+            readFully(table, slot, index * SLOT_LENGTH);
+            long offset = slot.getLong(8);
+            foundSlot = index;
+            if (offset == 0) {
+                return null;
+            }
+            if (slot.getLong(0) == hash) {
+                String[] entry = readEntry(offset - 1);
+                if (key.equals(entry[0])) {
+                    return entry[1];
+                }
+            }
+        }
+    }
+
+    private static long freeSlot(FileChannel table, long capacity, long hash) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_LENGTH);
+        for (long index = hash & (capacity - 1);; index = (index + 1) & (capacity - 1)) {
+            slot.clear();
+            readFully(table, slot, index * SLOT_LENGTH);
+            if (slot.getLong(8) == 0) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Writes the slot, offset of the entry is stored incremented, so zero
+     * marks the free slot.
+     */
+    private static void writeSlot(FileChannel table, long index, long hash, long offset) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_LENGTH);
+        slot.putLong(hash).putLong(offset).flip();
+        while (slot.hasRemaining()) {
+            table.write(slot, index * SLOT_LENGTH + slot.position());
+        }
+    }
+
+    /**
+     * Appends the entry to the data file.
+     *
+     * @return Offset of the entry incremented by one.
+     */
+    private long append(String key, String value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(8 + keyBytes.length + valueBytes.length);
+        entry.putInt(keyBytes.length).put(keyBytes).putInt(valueBytes.length).put(valueBytes).flip();
+        long offset = dataLength;
+        while (entry.hasRemaining()) {
+            data.write(entry, offset + entry.position());
+        }
+        dataLength += entry.capacity();
+        return offset + 1;
+    }
+
+    /**
+     * Reads the entry from the data file, short entries with one read.
+     *
+     * @return Key and value of the entry.
+     */
+    private String[] readEntry(long offset) throws IOException {
+        byte[] entry = readData(offset, ENTRY_READ_LENGTH);
+        int keyLength = ByteBuffer.wrap(entry).getInt(0);
+        if (entry.length < 8 + keyLength) {
+            entry = readData(offset, 8 + keyLength);
+        }
+        int valueLength = ByteBuffer.wrap(entry).getInt(4 + keyLength);
+        if (entry.length < 8 + keyLength + valueLength) {
+            entry = readData(offset, 8 + keyLength + valueLength);
+        }
+        return new String[]{new String(entry, 4, keyLength, StandardCharsets.UTF_8),
+            new String(entry, 8 + keyLength, valueLength, StandardCharsets.UTF_8)};
+    }
+
+    private byte[] readData(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, dataLength - offset));
+        readFully(data, buffer, offset);
+        return buffer.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Spilled map truncated");
+            }
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the key, mixed so the low bits select the slot.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static void closeFile(FileChannel channel, File file) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "Can't close temporary file " + file.getAbsolutePath() + ": " + ex);
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
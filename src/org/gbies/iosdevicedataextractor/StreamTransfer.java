@@ -24,15 +24,25 @@ package org.gbies.iosdevicedataextractor;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.logging.Level;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
 
+/**
+ * Pumps output of the process to the stream. Reading blocks until the
+ * process writes data, so the pump does not need to sleep between reads.
+ */
 public class StreamTransfer extends Thread {
 
-    private InputStream in;
-    private OutputStream out;
+    private final InputStream in;
+    private final OutputStream out;
+    private volatile long lastActivityTime;
 
     public StreamTransfer(InputStream in, OutputStream out) {
+        super("iOSDataExtractor-stream-transfer");
         this.in = in;
         this.out = out;
+        this.lastActivityTime = System.currentTimeMillis();
+        setDaemon(true);
     }
 
     @Override
@@ -51,17 +61,28 @@ public class StreamTransfer extends Thread {
                     break;
                 }
 
+                lastActivityTime = System.currentTimeMillis();
                 if (count > 0 && out != null) {
                     out.write(buffer, 0, count);
                 }
-                
+            }
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "Process stream closed: " + ex);
+        } finally {
+            if (out != null) {
                 try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
+                    out.close();
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Can't close process output stream: " + ex);
                 }
             }
-        } catch (IOException ex) {
-            ex.printStackTrace();
         }
     }
+
+    /**
+     * @return Time in milliseconds of the last data read from the process.
+     */
+    public long getLastActivityTime() {
+        return lastActivityTime;
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2021 Grzegorz Bieś, Ernest Bieś
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * iOS Device Data Extractor (Autopsy module), version  1.0
+ *
+ */
+package org.gbies.iosdevicedataextractor;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import static org.gbies.iosdevicedataextractor.addDeviceDataTask.logger;
+import org.gbies.iosbackupextractor.ITunesBackup;
+import org.sleuthkit.autopsy.casemodule.Case;
+
+/**
+ * Keeps backups with unlocked keybag in memory for the case session, so
+ * repeated extraction of the same encrypted backup doesn't derive the keys
+ * from the password again. The cache is cleared when the case is closed.
+ *
+ * Backups are keyed by backup directory, digest of Manifest.plist (with the
+ * keybag and the device UDID) and salted digest of the password, so the
+ * changed backup or wrong password never matches. The backup is taken out of
+ * the cache while it is used by the extraction.
+ */
+public class UnlockedBackupCache {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final UnlockedBackupCache instance = new UnlockedBackupCache();
+    private final Map<String, ITunesBackup> backups = new ConcurrentHashMap<>();
+    private final byte[] salt = new byte[16];
+
+    private UnlockedBackupCache() {
+        new SecureRandom().nextBytes(salt);
+        Case.addEventTypeSubscriber(EnumSet.of(Case.Events.CURRENT_CASE), new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent event) {
+                if (event.getNewValue() == null) {
+                    clear();
+                }
+            }
+        });
+    }
+
+    public static UnlockedBackupCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Takes the unlocked backup out of the cache.
+     *
+     * @param backupDirectory The folder containing the backup files.
+     * @param password Backup password.
+     * @return Backup with unlocked keybag or null if not cached.
+     */
+    public ITunesBackup take(File backupDirectory, String password) {
+        String key = getKey(backupDirectory, password);
+        return key != null ? backups.remove(key) : null;
+    }
+
+    /**
+     * Puts the unlocked backup to the cache when the extraction is finished.
+     *
+     * @param backup Backup with unlocked keybag.
+     * @param password Password used to unlock the keybag.
+     */
+    public void put(ITunesBackup backup, String password) {
+        String key = getKey(backup.directory, password);
+        if (key != null) {
+            backups.put(key, backup);
+        }
+    }
+
+    public void clear() {
+        backups.clear();
+    }
+
+    private String getKey(File backupDirectory, String password) {
+        try {
+            MessageDigest manifestDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            manifestDigest.update(Files.readAllBytes(new File(backupDirectory, "Manifest.plist").toPath()));
+
+            MessageDigest passwordDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            passwordDigest.update(salt);
+            passwordDigest.update(password.getBytes(StandardCharsets.UTF_8));
+
+            return backupDirectory.getCanonicalPath() + "\t" + FileExtractor.toHex(manifestDigest.digest())
+                    + "\t" + FileExtractor.toHex(passwordDigest.digest());
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            logger.log(Level.FINE, "Can't compute key of the unlocked backup cache: " + ex);
+            return null;
+        }
+    }
+}
@@ -27,6 +27,9 @@ import java.security.InvalidKeyException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import org.gbies.iosbackupextractor.BackupReadException;
 import org.openide.util.Exceptions;
@@ -37,6 +40,7 @@ import org.sleuthkit.autopsy.casemodule.services.FileManager;
 import org.sleuthkit.autopsy.corecomponentinterfaces.DataSourceProcessorCallback;
 import org.sleuthkit.autopsy.corecomponentinterfaces.DataSourceProcessorProgressMonitor;
 import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.IngestJobSettings;
 import org.sleuthkit.autopsy.ingest.IngestServices;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.Content;
@@ -52,24 +56,34 @@ public class addDeviceDataTask implements Runnable {
     private final DataSourceProcessorProgressMonitor progressMonitor;
     private final DataSourceProcessorCallback callbackObj;
     private final Host host;
+    private final IngestJobSettings ingestJobSettings;
     private boolean hasCriticalError = false;
     private final List<String> errorList = new ArrayList<>();
     private final IOSDataProcessorPanelSettings panelSettings;
     private final List<String> localFilePaths = new ArrayList<>();
     private final List<Content> newDataSources = new ArrayList<>();
+    private final IOSDataUnpacker iosDataUnpacker = new IOSDataUnpacker();
+    private volatile BackupPasswordVerifier passwordVerifier;
+    private volatile boolean cancelled = false;
     
     public addDeviceDataTask(Host host, IOSDataProcessorPanelSettings panelSettings, DataSourceProcessorProgressMonitor aProgressMonitor, DataSourceProcessorCallback cbObj){
+        this(host, null, panelSettings, aProgressMonitor, cbObj);
+    }
+    
+    /**
+     * Task adding extracted files to the ingest stream while the extraction
+     * is still running.
+     */
+    public addDeviceDataTask(Host host, IngestJobSettings ingestJobSettings, IOSDataProcessorPanelSettings panelSettings, DataSourceProcessorProgressMonitor aProgressMonitor, DataSourceProcessorCallback cbObj){
         this.host = host;
+        this.ingestJobSettings = ingestJobSettings;
         this.progressMonitor = aProgressMonitor;
         this.callbackObj = cbObj;
         this.panelSettings = panelSettings;        
     }
     
     public addDeviceDataTask(IOSDataProcessorPanelSettings panelSettings, DataSourceProcessorProgressMonitor aProgressMonitor, DataSourceProcessorCallback cbObj){
-        this.host = null;
-        this.progressMonitor = aProgressMonitor;
-        this.callbackObj = cbObj;
-        this.panelSettings = panelSettings;        
+        this(null, null, panelSettings, aProgressMonitor, cbObj);
     }
     
     @Messages({
@@ -80,11 +94,12 @@ public class addDeviceDataTask implements Runnable {
     "addDeviceDataTask.connect.problem=iOS device connection problem! ",
     "addDeviceDataTask.manifest.file.not.created=Create backup problem (Manifest.db file not found)! ",
     "addDeviceDataTask.error.add.files.dataSources=Error add files to new DataSources!",
-    "addDeviceDataTask.error.extract.backup=Incorrect password, backup decryption problem or backup directory not found!"})
+    "addDeviceDataTask.error.extract.backup=Incorrect password, backup decryption problem or backup directory not found!",
+    "addDeviceDataTask.error.add.file=Extracted file not added to the data source: ",
+    "addDeviceDataTask.cancelled=Adding iOS device data cancelled!"})
     @Override
     public void run() {
         errorList.clear();               
-        IOSDataUnpacker iosDataUnpacker = new IOSDataUnpacker();        
         StringBuilder deviceInfo = new StringBuilder();
         
         if (panelSettings.isLiveExtraction()) {
@@ -92,11 +107,7 @@ public class addDeviceDataTask implements Runnable {
             if (iosDataUnpacker.checkDevice()) {                
                 logger.log(Level.INFO, "Connecting device... {0}", iosDataUnpacker.getOutputStreamString());
                 
-                try {
-                    iosDataUnpacker.createBackup(panelSettings.getExtractDirectoryName(), panelSettings.isBackupEncrypted());
-                } catch (UnpackDataException ex) {
-                    Exceptions.printStackTrace(ex);
-                }
+                iosDataUnpacker.setCommandLogFile(new File(Case.getCurrentCase().getLogDirectoryPath(), "idevicebackup2_" + System.currentTimeMillis() + ".log"));
                 
                 String backupType = Bundle.addDeviceDataTask_creating_encrypted_backup();
                 if(!panelSettings.isBackupEncrypted()){
@@ -109,36 +120,35 @@ public class addDeviceDataTask implements Runnable {
                 progressMonitor.setProgressText(deviceInfo.toString());
                 progressMonitor.setIndeterminate(true);
                 
-                boolean showProgress = false;
-                int percent;
-                do {
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException ex) {
-                        Exceptions.printStackTrace(ex);
-                    }   
-                    
-                    percent = iosDataUnpacker.getBackupCreatePercent();
-                    if(!showProgress && percent > 0){
-                        progressMonitor.setIndeterminate(false);
-                        progressMonitor.setProgressMax(100);
-                        String info = deviceInfo.toString();
-                        deviceInfo.replace(info.lastIndexOf("\n")+1, info.length(), "Copying backup files...");
-                        progressMonitor.setProgressText(deviceInfo.toString());
-                        showProgress = true;
-                    }
-                    if(showProgress){
-                        progressMonitor.setProgress(percent);
-                    }                    
-                } while (iosDataUnpacker.isProcessing());
+                BackupProgressUpdater backupProgressUpdater = new BackupProgressUpdater(deviceInfo);
+                iosDataUnpacker.addCommandOutputListener(backupProgressUpdater);
+                ExtractionMetrics.Phase backupPhase = iosDataUnpacker.getMetrics().startPhase("backup");
+                try {
+                    iosDataUnpacker.createBackup(panelSettings.getExtractDirectoryName(), panelSettings.isBackupEncrypted()).get();
+                } catch (CancellationException ex) {
+                    logger.log(Level.WARNING, "Create backup cancelled");
+                } catch (UnpackDataException | ExecutionException ex) {
+                    logger.log(Level.SEVERE, "Create backup problem: " + ex);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    backupPhase.end();
+                    iosDataUnpacker.removeCommandOutputListener(backupProgressUpdater);
+                }
                 logger.log(Level.INFO, iosDataUnpacker.getOutputStreamString());                
+                iosDataUnpacker.setCommandLogFile(null);
+                
+                if (cancelled) {
+                    doCancelCallBack();
+                    return;
+                }
                 
                 File manifestDBFile = new File(iosDataUnpacker.getBackupDirectory(), "Manifest.db");
                 File manifestPListFile = new File(iosDataUnpacker.getBackupDirectory(), "Manifest.plist");
                 
                 if(!manifestPListFile.exists() || !manifestDBFile.exists()){
                     errorList.add(Bundle.addDeviceDataTask_manifest_file_not_created() + iosDataUnpacker.getOutputStreamString());
-                    if(iosDataUnpacker.getOutputStreamString().contains("ERROR: Backup encryption is already enabled")){
+                    if(iosDataUnpacker.getOutputErrors().toString().contains("ERROR: Backup encryption is already enabled")){
                         errorList.add(showMessageResetBackupPassword());
                     }
                     logger.log(Level.SEVERE, Bundle.addDeviceDataTask_manifest_file_not_created());
@@ -153,15 +163,53 @@ public class addDeviceDataTask implements Runnable {
 
         }
 
+        if (cancelled) {
+            doCancelCallBack();
+            return;
+        }
+
+        String backupPassword = panelSettings.getPassword();
+        if (!hasCriticalError && !panelSettings.isLiveExtraction() && !panelSettings.getPasswordCandidates().isEmpty()) {
+            ExtractionMetrics.Phase passwordPhase = iosDataUnpacker.getMetrics().startPhase("passwordVerification");
+            backupPassword = findBackupPassword();
+            passwordPhase.end();
+            if (cancelled) {
+                doCancelCallBack();
+                return;
+            }
+            if (backupPassword == null && !hasCriticalError) {
+                errorList.add(Bundle.addDeviceDataTask_password_not_found());
+                logger.log(Level.SEVERE, Bundle.addDeviceDataTask_password_not_found());
+                hasCriticalError = true;
+            }
+        }
+
         if (!hasCriticalError) {
             progressMonitor.setProgressText(Bundle.addDeviceDataTask_reading_backup_information());
             progressMonitor.setIndeterminate(true);
             
+            iosDataUnpacker.setWorkerCount(panelSettings.getWorkerCount());
+            iosDataUnpacker.setCompression(panelSettings.getCompressionPolicy(), panelSettings.getCompressionLevel());
+            iosDataUnpacker.setExtractionOrder(panelSettings.getFolderExtractionOrder(), panelSettings.getZipExtractionOrder());
+            iosDataUnpacker.setDeletePartialOutput(panelSettings.isDeletePartialOutput());
+            iosDataUnpacker.setResumeExtraction(panelSettings.isResumeExtraction());
+            iosDataUnpacker.setIncrementalExtraction(panelSettings.isIncrementalExtraction());
+            iosDataUnpacker.setDeduplication(panelSettings.isDeduplication());
+            iosDataUnpacker.setExtractionFilter(panelSettings.getExtractionFilter());
+            iosDataUnpacker.setHashAlgorithms(panelSettings.getHashAlgorithms());
+            ExtractionProgressUpdater extractionProgressUpdater = new ExtractionProgressUpdater();
+            iosDataUnpacker.addProgressListener(extractionProgressUpdater);
+            IngestStreamFileAdder ingestStreamFileAdder = null;
+            if (ingestJobSettings != null) {
+                ingestStreamFileAdder = new IngestStreamFileAdder(Case.getCurrentCase().getSleuthkitCase());
+                iosDataUnpacker.addExtractedFileListener(ingestStreamFileAdder);
+            }
+            CompletableFuture<File> extraction = null;
             try {
                 if (panelSettings.isLiveExtraction()) {
-                    iosDataUnpacker.extractBackup(panelSettings.isExtractToZip());
+                    extraction = iosDataUnpacker.extractBackup(panelSettings.isExtractToZip());
                 } else {
-                    iosDataUnpacker.extractBackup(panelSettings.getExtractDirectoryName(), panelSettings.getPassword(), panelSettings.isExtractToZip());
+                    extraction = iosDataUnpacker.extractBackup(panelSettings.getExtractDirectoryName(), backupPassword, panelSettings.isExtractToZip());
                 }
             } catch (FileNotFoundException | BackupReadException | InvalidKeyException ex) {
                 errorList.add(Bundle.addDeviceDataTask_error_extract_backup());
@@ -176,32 +224,80 @@ public class addDeviceDataTask implements Runnable {
                 progressMonitor.setProgressText(backupInfo.toString());
                 progressMonitor.setIndeterminate(false);
                 progressMonitor.setProgressMax(100);
+                extractionProgressUpdater.setProgressText(backupInfo.toString());
 
-                int percent;
-                do {
+                if (ingestStreamFileAdder != null) {
                     try {
-                        Thread.sleep(250);
-                    } catch (InterruptedException ex) {
-                        Exceptions.printStackTrace(ex);
+                        newDataSources.add(ingestStreamFileAdder.open(getDataSourceName(), host, iosDataUnpacker.getExtractDirectory(), ingestJobSettings));
+                    } catch (TskCoreException ex) {
+                        errorList.add(Bundle.addDeviceDataTask_error_add_files_dataSources());
+                        logger.log(Level.SEVERE, Bundle.addDeviceDataTask_error_add_files_dataSources() + " " + ex);
+                        hasCriticalError = true;
+                        iosDataUnpacker.cancel();
                     }
+                }
 
-                    percent = iosDataUnpacker.getBackupExtractPercent();
-                    progressMonitor.setProgress(percent);
-                } while (iosDataUnpacker.isProcessing());
-                
-                logger.log(Level.INFO, "Files extraction from iOS backup complete.");
+                try {
+                    extraction.get();
+                } catch (CancellationException ex) {
+                    logger.log(Level.WARNING, "Files extraction from iOS backup cancelled");
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    Exceptions.printStackTrace(ex);
+                } catch (ExecutionException ex) {
+                    errorList.add(Bundle.addDeviceDataTask_error_extract_backup());
+                    logger.log(Level.SEVERE, "Files extraction from iOS backup problem: " + ex.getCause());
+                    hasCriticalError = true;
+                }
+                ExtractionProgress extractionProgress = extractionProgressUpdater.getLastProgress();
+                if (extractionProgress != null) {
+                    logger.log(Level.INFO, "Files extraction from iOS backup complete: {0} files, {1} bytes in {2} ms.",
+                            new Object[]{extractionProgress.getExtractedFiles(), extractionProgress.getExtractedBytes(), extractionProgress.getElapsedMillis()});
+                } else {
+                    logger.log(Level.INFO, "Files extraction from iOS backup complete.");
+                }
 
+                if (ingestStreamFileAdder != null) {
+                    iosDataUnpacker.removeExtractedFileListener(ingestStreamFileAdder);
+                    if (cancelled || hasCriticalError) {
+                        ingestStreamFileAdder.stop();
+                    } else {
+                        ExtractionMetrics.Phase ingestStreamPhase = iosDataUnpacker.getMetrics().startPhase("addDataSource");
+                        try {
+                            ingestStreamFileAdder.finish();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            ingestStreamFileAdder.stop();
+                        } finally {
+                            ingestStreamPhase.end();
+                        }
+                    }
+                    for (File failedFile : ingestStreamFileAdder.getFailedFiles()) {
+                        errorList.add(Bundle.addDeviceDataTask_error_add_file() + failedFile.getAbsolutePath());
+                    }
+                }
+
+                if (cancelled) {
+                    doCancelCallBack();
+                    return;
+                }
+            }
+
+            if (!hasCriticalError && ingestStreamFileAdder == null) {
                 localFilePaths.add(iosDataUnpacker.getExtractDirectory().getAbsolutePath());
                 FileManager fileManager = Case.getCurrentCase().getServices().getFileManager();
                 LocalFilesDataSource newDataSource;
+                ExtractionMetrics.Phase addDataSourcePhase = iosDataUnpacker.getMetrics().startPhase("addDataSource");
                 try {
-                    String newDataSourceName = iosDataUnpacker.getDeviceName() + " " + iosDataUnpacker.getProductVersion() + " (" + iosDataUnpacker.getUniqueDeviceID() + ")";
-                    newDataSource = fileManager.addLocalFilesDataSource(UUID.randomUUID().toString(), newDataSourceName, "", host, localFilePaths, new ProgressUpdater());
+                    newDataSource = fileManager.addLocalFilesDataSource(UUID.randomUUID().toString(), getDataSourceName(), "", host, localFilePaths, new ProgressUpdater());
                     newDataSources.add(newDataSource);
                 } catch (TskCoreException | TskDataException ex) {
+                    addDataSourcePhase.recordError(ex);
                     errorList.add(Bundle.addDeviceDataTask_error_add_files_dataSources());
                     logger.log(Level.SEVERE, Bundle.addDeviceDataTask_error_add_files_dataSources());
                     hasCriticalError = true;                    
+                } finally {
+                    addDataSourcePhase.end();
                 }
             }
         }
@@ -209,6 +305,67 @@ public class addDeviceDataTask implements Runnable {
         doCallBack();
     }
     
+    @Messages({
+    "addDeviceDataTask.verifying.passwords=Verifying backup password candidates...",
+    "# {0} - number of checked candidates",
+    "# {1} - number of all candidates",
+    "# {2} - candidates per second",
+    "addDeviceDataTask.verifying.passwords.rate={0} of {1} candidates checked, {2} candidates/s",
+    "addDeviceDataTask.password.not.found=None of the password candidates unlocks the backup!",
+    "addDeviceDataTask.password.verification.error=Backup password candidates can't be verified: "})
+    private String findBackupPassword() {
+        final String progressText = Bundle.addDeviceDataTask_verifying_passwords();
+        logger.log(Level.INFO, progressText);
+        progressMonitor.setProgressText(progressText);
+        progressMonitor.setIndeterminate(false);
+        List<String> candidates = getPasswordCandidates();
+        progressMonitor.setProgressMax(candidates.size());
+
+        passwordVerifier = new BackupPasswordVerifier(new File(panelSettings.getExtractDirectoryName()), panelSettings.getWorkerCount());
+        if (cancelled) {
+            passwordVerifier.cancel();
+        }
+        try {
+            return passwordVerifier.findPassword(candidates, new PasswordTrialListener() {
+                @Override
+                public void candidateChecked(int checked, int total, double candidatesPerSecond) {
+                    progressMonitor.setProgress(checked);
+                    progressMonitor.setProgressText(progressText + "\n" + Bundle.addDeviceDataTask_verifying_passwords_rate(checked, total, String.format("%.2f", candidatesPerSecond)));
+                }
+            });
+        } catch (BackupReadException | FileNotFoundException | RuntimeException ex) {
+            errorList.add(Bundle.addDeviceDataTask_password_verification_error() + ex);
+            logger.log(Level.SEVERE, "Can't verify backup password candidates: " + ex);
+            hasCriticalError = true;
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+    
+    /**
+     * @return Password candidates to be verified, the backup password entered
+     * in the panel is checked first.
+     */
+    private List<String> getPasswordCandidates() {
+        List<String> candidates = new ArrayList<>();
+        String password = panelSettings.getPassword();
+        if (password != null && !password.isEmpty()) {
+            candidates.add(password);
+        }
+        for (String candidate : panelSettings.getPasswordCandidates()) {
+            if (!candidate.equals(password)) {
+                candidates.add(candidate);
+            }
+        }
+        return candidates;
+    }
+
+    private String getDataSourceName() {
+        return iosDataUnpacker.getDeviceName() + " " + iosDataUnpacker.getProductVersion() + " (" + iosDataUnpacker.getUniqueDeviceID() + ")";
+    }
+    
     private String showMessageResetBackupPassword(){
         StringBuilder message = new StringBuilder();
         message.append("The backup has a password! To encrypt the backup you need to reset the old password:").append("\n");
@@ -220,7 +377,37 @@ public class addDeviceDataTask implements Runnable {
         return message.toString();
     }
 
+    /**
+     * Cancels the task. Running commands are killed and extraction is stopped,
+     * the task then finishes without adding the data source.
+     */
+    public void cancel() {
+        cancelled = true;
+        BackupPasswordVerifier verifier = passwordVerifier;
+        if (verifier != null) {
+            verifier.cancel();
+        }
+        iosDataUnpacker.cancel();
+    }
+
+    /**
+     * Writes performance metrics of the phases next to the extract directory.
+     */
+    private void writeMetricsReport() {
+        if (iosDataUnpacker.getExtractDirectory() != null) {
+            iosDataUnpacker.getMetrics().writeReport(iosDataUnpacker.getExtractDirectory());
+        }
+    }
+
+    private void doCancelCallBack() {
+        writeMetricsReport();
+        errorList.add(Bundle.addDeviceDataTask_cancelled());
+        logger.log(Level.WARNING, Bundle.addDeviceDataTask_cancelled());
+        callbackObj.done(DataSourceProcessorCallback.DataSourceProcessorResult.CRITICAL_ERRORS, errorList, newDataSources);
+    }
+
     private void doCallBack() {
+        writeMetricsReport();
         DataSourceProcessorCallback.DataSourceProcessorResult result;
 
         if (hasCriticalError) {
@@ -233,6 +420,63 @@ public class addDeviceDataTask implements Runnable {
         callbackObj.done(result, errorList, newDataSources);
     }
             
+    @Messages({
+    "# {0} - extraction speed in MB/s",
+    "# {1} - estimated remaining time",
+    "addDeviceDataTask.extracting.speed={0} MB/s, remaining time: {1}",
+    "addDeviceDataTask.extracting.speed.unknown.time=unknown"})
+    private class BackupProgressUpdater implements CommandOutputListener {
+        private final StringBuilder deviceInfo;
+        private boolean showProgress;
+
+        BackupProgressUpdater(StringBuilder deviceInfo) {
+            this.deviceInfo = deviceInfo;
+        }
+
+        @Override
+        public synchronized void percentChanged(int percent) {
+            if (!showProgress) {
+                progressMonitor.setIndeterminate(false);
+                progressMonitor.setProgressMax(100);
+                String info = deviceInfo.toString();
+                deviceInfo.replace(info.lastIndexOf("\n") + 1, info.length(), "Copying backup files...");
+                progressMonitor.setProgressText(deviceInfo.toString());
+                showProgress = true;
+            }
+            progressMonitor.setProgress(percent);
+        }
+
+        @Override
+        public void errorReported(String line) {
+        }
+    }
+
+    private class ExtractionProgressUpdater implements ExtractionProgressListener {
+        private volatile String progressText;
+        private volatile ExtractionProgress lastProgress;
+
+        @Override
+        public void progressChanged(ExtractionProgress progress) {
+            lastProgress = progress;
+            progressMonitor.setProgress(progress.getPercent());
+            String text = progressText;
+            if (text != null && !progress.isCompleted()) {
+                long remainingSeconds = progress.getRemainingSeconds();
+                String remainingTime = remainingSeconds < 0 ? Bundle.addDeviceDataTask_extracting_speed_unknown_time()
+                        : String.format("%d:%02d:%02d", remainingSeconds / 3600, (remainingSeconds / 60) % 60, remainingSeconds % 60);
+                progressMonitor.setProgressText(text + "\n" + Bundle.addDeviceDataTask_extracting_speed(String.format("%.2f", progress.getBytesPerSecond() / (1024.0 * 1024)), remainingTime));
+            }
+        }
+
+        void setProgressText(String progressText) {
+            this.progressText = progressText;
+        }
+
+        ExtractionProgress getLastProgress() {
+            return lastProgress;
+        }
+    }
+
     private class ProgressUpdater implements FileManager.FileAddProgressUpdater {
         private int count;
         